@@ -22,6 +22,9 @@ import com.github.javiersantos.licensing.util.Base64DecoderException;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -42,6 +45,9 @@ public class AESObfuscator implements Obfuscator {
             {16, 74, 71, -80, 32, 101, -47, 72, 117, -14, 0, -29, 70, 65, -12, 74};
     private static final String header = "com.github.javiersantos.licensing.AESObfuscator-1|";
 
+    // Deriving the key is slow, so it's done once per salt and identifiers
+    private static final Map<String, SecretKey> sKeys = new HashMap<>();
+
     private final Cipher mEncryptor;
     private final Cipher mDecryptor;
 
@@ -52,11 +58,7 @@ public class AESObfuscator implements Obfuscator {
      */
     public AESObfuscator(byte[] salt, String applicationId, String deviceId) {
         try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(KEYGEN_ALGORITHM);
-            KeySpec keySpec =
-                    new PBEKeySpec((applicationId + deviceId).toCharArray(), salt, 1024, 256);
-            SecretKey tmp = factory.generateSecret(keySpec);
-            SecretKey secret = new SecretKeySpec(tmp.getEncoded(), "AES");
+            SecretKey secret = getKey(salt, applicationId, deviceId);
             mEncryptor = Cipher.getInstance(CIPHER_ALGORITHM);
             mEncryptor.init(Cipher.ENCRYPT_MODE, secret, new IvParameterSpec(IV));
             mDecryptor = Cipher.getInstance(CIPHER_ALGORITHM);
@@ -67,6 +69,38 @@ public class AESObfuscator implements Obfuscator {
         }
     }
 
+    /**
+     * Derives the key for the given salt and identifiers, so the next obfuscator created with
+     * them doesn't have to.
+     */
+    public static void prewarm(byte[] salt, String applicationId, String deviceId) {
+        try {
+            getKey(salt, applicationId, deviceId);
+        } catch (GeneralSecurityException e) {
+            // The constructor will report it
+        }
+    }
+
+    private static SecretKey getKey(byte[] salt, String applicationId, String deviceId)
+            throws GeneralSecurityException {
+        String cacheKey = Arrays.toString(salt) + "|" + applicationId + "|" + deviceId;
+        synchronized (sKeys) {
+            SecretKey secret = sKeys.get(cacheKey);
+            if (secret != null) {
+                return secret;
+            }
+        }
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(KEYGEN_ALGORITHM);
+        KeySpec keySpec =
+                new PBEKeySpec((applicationId + deviceId).toCharArray(), salt, 1024, 256);
+        SecretKey tmp = factory.generateSecret(keySpec);
+        SecretKey secret = new SecretKeySpec(tmp.getEncoded(), "AES");
+        synchronized (sKeys) {
+            sKeys.put(cacheKey, secret);
+        }
+        return secret;
+    }
+
     public String obfuscate(String original, String key) {
         if (original == null) {
             return null;
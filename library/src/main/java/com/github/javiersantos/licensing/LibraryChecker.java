@@ -41,10 +41,13 @@ import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
@@ -66,6 +69,8 @@ public class LibraryChecker implements ServiceConnection {
     private static final int TIMEOUT_MS = 10 * 1000;
 
     private static final SecureRandom RANDOM = new SecureRandom();
+    // Decoded public keys, by their Base64 encoding
+    private static final Map<String, PublicKey> sPublicKeys = new HashMap<>();
     private static final boolean DEBUG_LICENSE_ERROR = false;
     private final Context mContext;
     private final Policy mPolicy;
@@ -105,11 +110,21 @@ public class LibraryChecker implements ServiceConnection {
      * @throws IllegalArgumentException if encodedPublicKey is invalid
      */
     private static PublicKey generatePublicKey(String encodedPublicKey) {
+        synchronized (sPublicKeys) {
+            PublicKey publicKey = sPublicKeys.get(encodedPublicKey);
+            if (publicKey != null) {
+                return publicKey;
+            }
+        }
         try {
             byte[] decodedKey = Base64.decode(encodedPublicKey);
             KeyFactory keyFactory = KeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
 
-            return keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+            PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+            synchronized (sPublicKeys) {
+                sPublicKeys.put(encodedPublicKey, publicKey);
+            }
+            return publicKey;
         } catch (NoSuchAlgorithmException e) {
             // This won't happen in an Android-compatible environment.
             throw new RuntimeException(e);
@@ -122,6 +137,24 @@ public class LibraryChecker implements ServiceConnection {
         }
     }
 
+    /**
+     * Decodes the public key and seeds the random number generator used for the nonces, so the
+     * first license check doesn't have to.
+     *
+     * @param encodedPublicKey Base64-encoded RSA public key, or null to only seed the generator
+     */
+    public static void prewarm(String encodedPublicKey) {
+        RANDOM.nextInt();
+        if (encodedPublicKey == null) {
+            return;
+        }
+        try {
+            generatePublicKey(encodedPublicKey);
+        } catch (IllegalArgumentException e) {
+            // The constructor will report it
+        }
+    }
+
     /**
      * Get version code for the application package name.
      *
@@ -223,18 +256,14 @@ public class LibraryChecker implements ServiceConnection {
     }
 
     public synchronized void finishAllChecks() {
-        for (LibraryValidator validator : mChecksInProgress) {
+        // finishCheck() removes the validator, so iterate over a copy
+        for (LibraryValidator validator : new ArrayList<>(mChecksInProgress)) {
             try {
                 finishCheck(validator);
             } catch (Exception ignored) {
             }
         }
-        for (LibraryValidator validator : mPendingChecks) {
-            try {
-                mPendingChecks.remove(validator);
-            } catch (Exception ignored) {
-            }
-        }
+        mPendingChecks.clear();
     }
 
     private synchronized void finishCheck(LibraryValidator validator) {
@@ -5,11 +5,15 @@ package com.github.javiersantos.piracychecker
 import android.content.Context
 import androidx.fragment.app.Fragment
 import com.github.javiersantos.piracychecker.callbacks.AllowCallback
+import com.github.javiersantos.piracychecker.callbacks.DetectionCallback
 import com.github.javiersantos.piracychecker.callbacks.DoNotAllowCallback
 import com.github.javiersantos.piracychecker.callbacks.OnErrorCallback
 import com.github.javiersantos.piracychecker.callbacks.PiracyCheckerCallbacksDSL
+import com.github.javiersantos.piracychecker.callbacks.RevokeCallback
 import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
 import com.github.javiersantos.piracychecker.enums.PirateApp
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
 
 fun Context.piracyChecker(builder: PiracyChecker.() -> Unit): PiracyChecker {
     val checker = PiracyChecker(this)
@@ -43,6 +47,30 @@ inline fun PiracyChecker.onError(crossinline onError: (PiracyCheckerError) -> Un
     })
 }
 
+inline fun PiracyChecker.revoke(crossinline revoke: (PiracyCheckerError, PirateApp?) -> Unit) =
+    apply {
+        revokeCallback(object : RevokeCallback {
+            override fun revoke(error: PiracyCheckerError, app: PirateApp?) = revoke(error, app)
+        })
+    }
+
+inline fun PiracyChecker.detected(crossinline detected: (PirateApp) -> Unit) = apply {
+    detectionCallback(object : DetectionCallback {
+        override fun detected(app: PirateApp) = detected(app)
+    })
+}
+
 fun PiracyChecker.callback(callbacks: PiracyCheckerCallbacksDSL.() -> Unit) {
     PiracyCheckerCallbacksDSL(this).callbacks()
-}
\ No newline at end of file
+}
+
+/**
+ * Runs every enabled check and returns the outcome of each one, instead of calling the callbacks.
+ * Every unauthorized app installed is listed in [PiracyVerdict.pirateApps], even without
+ * [PiracyChecker.enableExhaustiveScan].
+ * Cancelling the coroutine cancels the checks that are still running.
+ */
+suspend fun PiracyChecker.verify(): PiracyVerdict = suspendCancellableCoroutine { continuation ->
+    val subscription = verifyAll { continuation.resume(it) }
+    continuation.invokeOnCancellation { subscription?.cancel() }
+}
@@ -5,32 +5,48 @@ import android.app.Activity
 import android.content.Context
 import android.content.Intent
 import android.content.SharedPreferences
-import android.provider.Settings
 import android.util.Log
 import androidx.annotation.ColorRes
 import androidx.annotation.LayoutRes
 import androidx.annotation.StringRes
 import com.github.javiersantos.R
-import com.github.javiersantos.licensing.AESObfuscator
-import com.github.javiersantos.licensing.LibraryChecker
-import com.github.javiersantos.licensing.LibraryCheckerCallback
-import com.github.javiersantos.licensing.ServerManagedPolicy
 import com.github.javiersantos.piracychecker.activities.LicenseActivity
 import com.github.javiersantos.piracychecker.callbacks.AllowCallback
+import com.github.javiersantos.piracychecker.callbacks.DetectionCallback
 import com.github.javiersantos.piracychecker.callbacks.DoNotAllowCallback
 import com.github.javiersantos.piracychecker.callbacks.OnErrorCallback
 import com.github.javiersantos.piracychecker.callbacks.PiracyCheckerCallback
+import com.github.javiersantos.piracychecker.callbacks.RevokeCallback
+import com.github.javiersantos.piracychecker.catalog.BloomCatalog
+import com.github.javiersantos.piracychecker.catalog.CatalogSource
+import com.github.javiersantos.piracychecker.checks.BlockedCheck
+import com.github.javiersantos.piracychecker.checks.DebugCheck
+import com.github.javiersantos.piracychecker.checks.EmulatorCheck
+import com.github.javiersantos.piracychecker.checks.InstallerCheck
+import com.github.javiersantos.piracychecker.checks.LicensingCheck
+import com.github.javiersantos.piracychecker.checks.PiracyCheck
+import com.github.javiersantos.piracychecker.checks.PiracyCheckResult
+import com.github.javiersantos.piracychecker.checks.PirateAppCheck
+import com.github.javiersantos.piracychecker.checks.SigningCertificateCheck
 import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.CheckStatus
 import com.github.javiersantos.piracychecker.enums.Display
 import com.github.javiersantos.piracychecker.enums.InstallerID
 import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
 import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.enums.VerdictStatus
+import com.github.javiersantos.piracychecker.utils.AppCatalog
+import com.github.javiersantos.piracychecker.utils.CertificateScanner
+import com.github.javiersantos.piracychecker.utils.EmulatorDetector
+import com.github.javiersantos.piracychecker.utils.ExecutorUtils
+import com.github.javiersantos.piracychecker.utils.LivePackageIndex
 import com.github.javiersantos.piracychecker.utils.SaltUtils
-import com.github.javiersantos.piracychecker.utils.getPirateApp
-import com.github.javiersantos.piracychecker.utils.isDebug
-import com.github.javiersantos.piracychecker.utils.isInEmulator
-import com.github.javiersantos.piracychecker.utils.verifyInstallerId
-import com.github.javiersantos.piracychecker.utils.verifySigningCertificates
+import com.github.javiersantos.piracychecker.utils.cataloguedPackages
+import com.github.javiersantos.piracychecker.utils.pirateAppsKey
+import java.io.File
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration
 
 // Library configuration/customizations
 @Suppress("unused")
@@ -60,9 +76,15 @@ class PiracyChecker(
     private var enableStoresCheck: Boolean = false
     private var enableEmulatorCheck: Boolean = false
     private var enableDeepEmulatorCheck: Boolean = false
+    private var emulatorThreshold: Int = EmulatorDetector.DEFAULT_THRESHOLD
     private var enableDebugCheck: Boolean = false
     private var enableFoldersCheck: Boolean = false
     private var enableAPKCheck: Boolean = false
+    private var enableExhaustiveScan: Boolean = false
+    private var verdictCacheTtlMillis: Long = 0
+    private var optimisticMaxAgeMillis: Long = 0
+    private var deadlineMillis: Long = 0
+    private var passByDefault: Boolean = true
     private var saveToSharedPreferences: Boolean = false
     private var blockUnauthorized: Boolean = false
     private var preferences: SharedPreferences? = null
@@ -72,13 +94,23 @@ class PiracyChecker(
     private var signatures: Array<String> = arrayOf()
     private val installerIDs: MutableList<InstallerID>
     private val extraApps: ArrayList<PirateApp>
+    private val customChecks: MutableList<PiracyCheck> = ArrayList()
+    private var catalog: CatalogSource? = null
+    private val blockedCertificates: MutableSet<String> = HashSet()
+    private var enableLivePackageIndex: Boolean = false
 
     private var allowCallback: AllowCallback? = null
     private var doNotAllowCallback: DoNotAllowCallback? = null
     private var onErrorCallback: OnErrorCallback? = null
+    private var revokeCallback: RevokeCallback? = null
+    private var detectionCallback: DetectionCallback? = null
 
-    // LVL
-    private var libraryLVLChecker: LibraryChecker? = null
+    // Threading
+    private var verificationExecutor: Executor? = null
+    private var callbackExecutor: Executor? = null
+    private var subscription: VerificationFlights.Subscription? = null
+    private val generation = AtomicInteger()
+    private val appInstalledListener: (PirateApp) -> Unit = { onAppInstalled(it) }
 
     // Dialog
     private var dialog: PiracyCheckerDialog? = null
@@ -189,9 +221,42 @@ class PiracyChecker(
         return this
     }
 
-    fun enableEmulatorCheck(deepCheck: Boolean): PiracyChecker {
+    /**
+     * @param threshold
+     * Score above which the device is considered an emulator. Each suspicious `Build` field adds
+     * 1 to the score. Each signal found by the deep check adds 10, except the `hypervisor` flag
+     * of `/proc/cpuinfo`, which some real devices report too and adds 1.
+     */
+    @JvmOverloads
+    fun enableEmulatorCheck(
+        deepCheck: Boolean,
+        threshold: Int = EmulatorDetector.DEFAULT_THRESHOLD
+    ): PiracyChecker {
         this.enableEmulatorCheck = true
         this.enableDeepEmulatorCheck = deepCheck
+        this.emulatorThreshold = threshold
+        return this
+    }
+
+    /**
+     * Looks for every unauthorized app instead of stopping at the first one. The DoNotAllowCallback
+     * still receives the first app, the others are listed in [PiracyVerdict.pirateApps] and
+     * reported to the DetectionCallback as soon as they are found.
+     */
+    fun enableExhaustiveScan(): PiracyChecker {
+        this.enableExhaustiveScan = true
+        return this
+    }
+
+    /**
+     * Keeps the installed apps found by the unauthorized apps check in memory, up to date with
+     * the apps installed, updated and removed, so the scans after the first one don't have to
+     * list the installed apps again. Apps installed after [start] are reported to the
+     * DoNotAllowCallback as soon as they are installed, until [destroy] is called, on the main
+     * thread unless a [callbackExecutor] is set. Not used with a catalog kept on disk.
+     */
+    fun enableLivePackageIndex(): PiracyChecker {
+        this.enableLivePackageIndex = true
         return this
     }
 
@@ -210,6 +275,87 @@ class PiracyChecker(
         return this
     }
 
+    /**
+     * Looks for installed apps signed with any of these certificates, which finds patchers even
+     * when they randomize their package name. Apps found this way are reported as
+     * [com.github.javiersantos.piracychecker.enums.AppType.PIRATE].
+     *
+     * @param sha256Digests
+     * SHA-256 digests of the signing certificates, in hex, with or without colons
+     */
+    fun addBlockedCertificates(vararg sha256Digests: String): PiracyChecker {
+        sha256Digests.mapTo(this.blockedCertificates) { CertificateScanner.normalize(it) }
+        return this
+    }
+
+    /**
+     * Looks for the apps of a catalog written with
+     * [com.github.javiersantos.piracychecker.catalog.CatalogWriter] instead of the built-in ones.
+     * The catalog is read once per process, the first time it's needed. If it can't be read, the
+     * built-in apps are used. Catalogs of more than 10,000 apps are kept on disk as if a false
+     * positive rate of 1% was set, so the first check doesn't read all of them.
+     *
+     * @param assetName
+     * Path of the catalog in the assets of your app
+     */
+    fun withCatalog(assetName: String): PiracyChecker {
+        this.catalog = CatalogSource.Asset(assetName)
+        return this
+    }
+
+    /**
+     * Same as [withCatalog], reading the catalog from a file. The catalog is read again when the
+     * file changes.
+     */
+    fun withCatalog(file: File): PiracyChecker {
+        this.catalog = CatalogSource.LocalFile(file)
+        return this
+    }
+
+    /**
+     * Same as [withCatalog], for catalogs too large to be kept in memory. Only a Bloom filter of
+     * the catalog is, about 1.2 bytes per app at a 1% rate: installed packages found in it are
+     * confirmed by reading the catalog again. Apps matched anywhere in the package name are kept
+     * in memory and checked as usual.
+     *
+     * @param falsePositiveRate
+     * Rate at which the filter finds packages that aren't in the catalog, between 0 and 1: the
+     * lower, the larger the filter, but the less often the catalog is read again for nothing
+     */
+    fun withCatalog(assetName: String, falsePositiveRate: Double): PiracyChecker {
+        require(falsePositiveRate > 0 && falsePositiveRate < 1) {
+            "The false positive rate must be between 0 and 1"
+        }
+        this.catalog = CatalogSource.Asset(assetName, falsePositiveRate)
+        return this
+    }
+
+    /**
+     * Same as [withCatalog] with a false positive rate, reading the catalog from a file.
+     */
+    fun withCatalog(file: File, falsePositiveRate: Double): PiracyChecker {
+        require(falsePositiveRate > 0 && falsePositiveRate < 1) {
+            "The false positive rate must be between 0 and 1"
+        }
+        this.catalog = CatalogSource.LocalFile(file, falsePositiveRate)
+        return this
+    }
+
+    /**
+     * Adds your own check. It runs along with the built-in ones and, if it fails, the
+     * DoNotAllowCallback receives the error and app of its [PiracyCheckResult].
+     *
+     * @throws IllegalArgumentException if a check with the same id has already been added
+     */
+    fun addCheck(check: PiracyCheck): PiracyChecker {
+        require(check.id !in VerificationPipeline.BUILT_IN_CHECKS &&
+                    customChecks.none { it.id == check.id }) {
+            "A check with id ${check.id} has already been added"
+        }
+        this.customChecks.add(check)
+        return this
+    }
+
     fun saveResultToSharedPreferences(
         preferences: SharedPreferences,
         preferenceName: String
@@ -292,6 +438,100 @@ class PiracyChecker(
         return this
     }
 
+    fun revokeCallback(revokeCallback: RevokeCallback): PiracyChecker {
+        this.revokeCallback = revokeCallback
+        return this
+    }
+
+    /**
+     * Receives every unauthorized app while the scan is running. Only used with
+     * [enableExhaustiveScan], and only when this checker runs the scan itself: apps found by a
+     * shared or cached verification are only listed in the [PiracyVerdict].
+     */
+    fun detectionCallback(detectionCallback: DetectionCallback): PiracyChecker {
+        this.detectionCallback = detectionCallback
+        return this
+    }
+
+    /**
+     * Runs every check on a background executor instead of the thread calling [start].
+     *
+     * @param executor
+     * Executor used to run the checks. A small bounded pool shared by all the checkers is used
+     * when it's null.
+     */
+    @JvmOverloads
+    fun enableBackgroundVerification(executor: Executor? = null): PiracyChecker {
+        this.verificationExecutor = executor ?: ExecutorUtils.background
+        return this
+    }
+
+    /**
+     * Sets the executor the callbacks are delivered on. Callbacks are delivered on the main
+     * thread by default when background verification is enabled, and on the thread that finished
+     * the checks otherwise.
+     */
+    fun callbackExecutor(executor: Executor): PiracyChecker {
+        this.callbackExecutor = executor
+        return this
+    }
+
+    /**
+     * Shares the result with every other [PiracyChecker] in the process using the same
+     * configuration, so calling [start] again won't run the checks until the result expires. The
+     * result also expires when your app or any of the apps being checked is installed, updated or
+     * removed.
+     *
+     * @param ttlMillis
+     * How long the result is kept, in milliseconds
+     */
+    @JvmOverloads
+    fun enableVerdictCache(ttlMillis: Long = DEFAULT_VERDICT_CACHE_TTL_MILLIS): PiracyChecker {
+        this.verdictCacheTtlMillis = ttlMillis
+        return this
+    }
+
+    /**
+     * Calls the AllowCallback as soon as [start] is called if the last verification with the
+     * same configuration allowed the app. The checks still run afterwards and, if they don't
+     * allow the app anymore, the RevokeCallback is called, or the DoNotAllowCallback if there's
+     * no RevokeCallback.
+     *
+     * @param maxAgeMillis
+     * How long a previous verdict can be trusted, in milliseconds
+     */
+    @JvmOverloads
+    fun enableOptimisticStart(
+        maxAgeMillis: Long = DEFAULT_OPTIMISTIC_MAX_AGE_MILLIS
+    ): PiracyChecker {
+        this.optimisticMaxAgeMillis = maxAgeMillis
+        return this
+    }
+
+    /**
+     * Limits how long the checks can take. When the deadline expires, the checks still running
+     * are cancelled and use their last saved result or, if they have never finished before,
+     * pass or fail depending on [passByDefault]. Outcomes decided this way are marked as
+     * timed out in the [PiracyVerdict], and their callbacks are delivered on the main thread
+     * unless a [callbackExecutor] is set.
+     *
+     * It only has a full effect with [enableBackgroundVerification]: otherwise the checks run on
+     * the thread calling [start], which can't be interrupted, and only the checks reporting
+     * their result later, like the license check, are limited.
+     *
+     * @param deadlineMillis
+     * Maximum time to wait for the checks, in milliseconds
+     */
+    @JvmOverloads
+    fun withDeadline(deadlineMillis: Long, passByDefault: Boolean = true): PiracyChecker {
+        this.deadlineMillis = deadlineMillis
+        this.passByDefault = passByDefault
+        return this
+    }
+
+    fun withDeadline(deadline: Duration, passByDefault: Boolean = true): PiracyChecker =
+        withDeadline(deadline.inWholeMilliseconds, passByDefault)
+
     private fun callback(callback: PiracyCheckerCallback): PiracyChecker {
         this.allowCallback = object : AllowCallback {
             override fun allow() {
@@ -313,8 +553,12 @@ class PiracyChecker(
     }
 
     fun destroy() {
+        // Invalidates any result still in flight so no callback is delivered after this point
+        generation.incrementAndGet()
+        subscription?.cancel()
+        subscription = null
+        removeAppInstalledListener()
         dismissDialog()
-        destroyLVLChecker()
         context = null
     }
 
@@ -367,116 +611,264 @@ class PiracyChecker(
                 }
             })
         }
-        verify()
-    }
-
-    private fun verify() {
-        // Library will check first the non-LVL methods since LVL is asynchronous and could take
-        // some seconds to give a result
-        if (!verifySigningCertificate()) {
-            doNotAllowCallback?.doNotAllow(PiracyCheckerError.SIGNATURE_NOT_VALID, null)
-        } else if (!verifyInstallerId()) {
-            doNotAllowCallback?.doNotAllow(PiracyCheckerError.INVALID_INSTALLER_ID, null)
-        } else if (!verifyUnauthorizedApp()) {
-            doNotAllowCallback?.doNotAllow(PiracyCheckerError.BLOCK_PIRATE_APP, null)
-        } else {
-            if (enableLVL) {
-                val deviceId =
-                    Settings.Secure.getString(context?.contentResolver, Settings.Secure.ANDROID_ID)
-                destroyLVLChecker()
-                libraryLVLChecker =
-                    LibraryChecker(
-                        context,
-                        ServerManagedPolicy(
-                            context,
-                            AESObfuscator(
-                                SaltUtils.getSalt(context), context?.packageName, deviceId
-                            )
-                        ),
-                        licenseBase64
-                    )
-                libraryLVLChecker?.checkAccess(object : LibraryCheckerCallback {
-                    override fun allow(reason: Int) {
-                        doExtraVerification(true)
-                    }
 
-                    override fun dontAllow(reason: Int) {
-                        doExtraVerification(false)
-                    }
+        val context = context ?: return
+        val generation = generation.incrementAndGet()
+        subscription?.cancel()
+        subscription = null
+
+        removeAppInstalledListener()
+        if (enableLivePackageIndex && hasPirateAppCheck()) {
+            val extraApps = ArrayList(extraApps)
+            val catalog = catalog
+            // The key queries the package manager, so it's not computed on the calling thread
+            (verificationExecutor ?: ExecutorUtils.background).execute {
+                val key = context.pirateAppsKey(
+                    enableUnauthorizedAppsCheck, enableStoresCheck, extraApps, catalog
+                )
+                // Unless destroyed or started again meanwhile, which removed the listener
+                synchronized(appInstalledListener) {
+                    if (isActive(generation))
+                        LivePackageIndex.addListener(key, appInstalledListener)
+                }
+            }
+        }
 
-                    override fun applicationError(errorCode: Int) {
-                        onErrorCallback?.onError(
-                            PiracyCheckerError.getCheckerErrorFromCode(errorCode)
-                        )
-                    }
-                })
-            } else {
-                doExtraVerification(true)
+        val key = configurationKey()
+        val allowed = optimisticMaxAgeMillis > 0 &&
+                VerdictStore.isAllowed(context, configurationKey(true), optimisticMaxAgeMillis)
+        if (allowed) deliver(generation) { allowCallback?.allow() }
+
+        if (verdictCacheTtlMillis > 0) {
+            VerdictCache.get(key)?.let {
+                onResolved(generation, it, allowed)
+                return
             }
         }
+        subscription = VerificationFlights.join(
+            key, { onResolved(generation, it, allowed) }
+        ) { complete ->
+            VerificationPipeline(
+                context, buildChecks(generation), verificationExecutor ?: ExecutorUtils.direct,
+                deadline = deadline(context)
+            ) { verdict ->
+                saveResult(context, key, verdict)
+                complete(verdict)
+            }.also { it.start() }
+        }
     }
 
-    private fun verifySigningCertificate(): Boolean {
-        return !enableSigningCertificate || (context?.verifySigningCertificates(signatures) == true)
+    /**
+     * Runs every enabled check until it finishes, without short-circuiting, and reports the full
+     * [PiracyVerdict] to [onVerdict] instead of calling the callbacks. The scan looks for every
+     * unauthorized app, as with [enableExhaustiveScan]. The checks run on the background executor
+     * even if background verification hasn't been enabled.
+     */
+    internal fun verifyAll(
+        onVerdict: (PiracyVerdict) -> Unit
+    ): VerificationFlights.Subscription? {
+        val context = checkNotNull(context) { "PiracyChecker has already been destroyed" }
+        // Only verdicts of exhaustive scans list every app
+        val key = configurationKey(exhaustive = true)
+        if (verdictCacheTtlMillis > 0) {
+            // Results cached by start() may have skipped some checks
+            VerdictCache.get(key)?.takeIf { it.isComplete }?.let {
+                onVerdict(it)
+                return null
+            }
+        }
+        // Verifications started by start() stop early, so they are not shared with this one
+        return VerificationFlights.join("$key|all", onVerdict) { complete ->
+            VerificationPipeline(
+                context, buildChecks(generation.get(), exhaustive = true),
+                verificationExecutor ?: ExecutorUtils.background,
+                exhaustive = true, deadline = deadline(context)
+            ) { verdict ->
+                saveResult(context, key, verdict)
+                complete(verdict)
+            }.also { it.start() }
+        }
     }
 
-    private fun verifyInstallerId(): Boolean {
-        return installerIDs.isEmpty() || (context?.verifyInstallerId(installerIDs) == true)
+    /**
+     * Identifies everything that can change the result of the checks. The [stable] key doesn't
+     * depend on object identities, so it's the same in every session.
+     */
+    private fun configurationKey(
+        stable: Boolean = false,
+        exhaustive: Boolean = enableExhaustiveScan
+    ): String = listOf(
+        context?.packageName, enableLVL, licenseBase64, enableSigningCertificate,
+        signatures.sorted(), installerIDs.map { it.name }.sorted(), enableUnauthorizedAppsCheck,
+        enableStoresCheck, enableEmulatorCheck, enableDeepEmulatorCheck, emulatorThreshold,
+        enableDebugCheck,
+        enableFoldersCheck, enableAPKCheck, exhaustive, blockUnauthorized,
+        preferenceBlockUnauthorized,
+        saveToSharedPreferences, preferenceSaveResult,
+        preferences?.takeUnless { stable }?.let { System.identityHashCode(it) },
+        extraApps.map { it.packageName }.sorted(), catalog?.key, blockedCertificates.sorted(),
+        deadlineMillis, passByDefault,
+        customChecks.map { check ->
+            // Instances without a key of their own are told apart by identity
+            val configuration = check.configurationKey
+                ?: if (stable) "" else "${System.identityHashCode(check)}"
+            "${check.javaClass.name}:${check.id}:$configuration"
+        }
+    ).joinToString("|")
+
+    private fun prewarm() {
+        val context = context ?: return
+        SaltUtils.getSalt(context)
+        if (enableLVL)
+            LicensingCheck.prewarm(context, licenseBase64)
+        if (enableUnauthorizedAppsCheck || enableStoresCheck || extraApps.isNotEmpty()) {
+            val catalog = catalog
+            if (catalog != null && catalog.isFiltered(context)) BloomCatalog.of(context, catalog)
+            else AppCatalog.prewarm(context, catalog)
+        }
     }
 
-    private fun verifyUnauthorizedApp(): Boolean {
-        return !blockUnauthorized ||
-                !(preferences?.getBoolean(preferenceBlockUnauthorized, false) ?: false)
+    private fun deadline(context: Context): Deadline? {
+        if (deadlineMillis <= 0) return null
+        val key = configurationKey(true)
+        return Deadline(deadlineMillis, passByDefault) {
+            VerdictStore.loadCheckResult(context, key, it)
+        }
     }
 
-    private fun doExtraVerification(
-        possibleSuccess: Boolean
-    ) {
-        val app = context?.getPirateApp(
-            enableUnauthorizedAppsCheck, enableStoresCheck, enableFoldersCheck, enableAPKCheck,
-            extraApps
+    private fun isActive(generation: Int): Boolean = generation == this.generation.get()
+
+    private fun removeAppInstalledListener() =
+        synchronized(appInstalledListener) { LivePackageIndex.removeListener(appInstalledListener) }
+
+    /**
+     * @param onMainThread
+     * Whether the callback must go to the main thread even without background verification,
+     * because it's called from one of the threads of the library
+     */
+    private fun deliver(generation: Int, onMainThread: Boolean = false, callback: () -> Unit) {
+        if (!isActive(generation)) return
+        val executor = callbackExecutor
+            ?: if (onMainThread || verificationExecutor != null) ExecutorUtils.mainThread
+            else ExecutorUtils.direct
+        executor.execute {
+            if (isActive(generation)) callback()
+        }
+    }
+
+    private fun buildChecks(
+        generation: Int,
+        exhaustive: Boolean = enableExhaustiveScan
+    ): List<PiracyCheck> {
+        val checks = ArrayList<PiracyCheck>()
+        if (enableSigningCertificate)
+            checks.add(SigningCertificateCheck(signatures))
+        if (installerIDs.isNotEmpty())
+            checks.add(InstallerCheck(ArrayList(installerIDs)))
+        if (blockUnauthorized)
+            checks.add(BlockedCheck(preferences, preferenceBlockUnauthorized))
+        if (enableLVL)
+            checks.add(LicensingCheck(licenseBase64))
+        if (enableDebugCheck)
+            checks.add(DebugCheck())
+        if (enableEmulatorCheck)
+            checks.add(EmulatorCheck(enableDeepEmulatorCheck, emulatorThreshold))
+        if (hasPirateAppCheck())
+            checks.add(
+                PirateAppCheck(
+                    enableUnauthorizedAppsCheck, enableStoresCheck, enableFoldersCheck,
+                    enableAPKCheck, ArrayList(extraApps), catalog, HashSet(blockedCertificates),
+                    exhaustive, enableLivePackageIndex
+                ) { app -> deliver(generation) { detectionCallback?.detected(app) } }
+            )
+        checks.addAll(customChecks)
+        return checks
+    }
+
+    private fun hasPirateAppCheck(): Boolean =
+        enableUnauthorizedAppsCheck || enableStoresCheck || extraApps.isNotEmpty() ||
+                blockedCertificates.isNotEmpty()
+
+    /**
+     * Reports an app installed after [start] as if the checks had just found it, and saves the
+     * result like any other.
+     */
+    private fun onAppInstalled(app: PirateApp) {
+        val context = context ?: return
+        val error = if (app.type == AppType.STORE) PiracyCheckerError.THIRD_PARTY_STORE_INSTALLED
+        else PiracyCheckerError.PIRATE_APP_INSTALLED
+        val verdict = PiracyVerdict(
+            VerdictStatus.NOT_ALLOWED, error, app, listOf(app),
+            listOf(
+                CheckOutcome(PiracyCheck.PIRATE_APP, CheckStatus.FAILED, error, app, 0)
+            )
         )
-        if (possibleSuccess) {
-            if (enableDebugCheck && (context?.isDebug() == true)) {
-                if (saveToSharedPreferences)
-                    preferences?.edit()?.putBoolean(preferenceSaveResult, false)?.apply()
-                doNotAllowCallback?.doNotAllow(PiracyCheckerError.USING_DEBUG_APP, null)
-            } else if (enableEmulatorCheck && isInEmulator(enableDeepEmulatorCheck)) {
-                if (saveToSharedPreferences)
-                    preferences?.edit()?.putBoolean(preferenceSaveResult, false)?.apply()
-                doNotAllowCallback?.doNotAllow(PiracyCheckerError.USING_APP_IN_EMULATOR, null)
-            } else if (app != null) {
-                if (saveToSharedPreferences)
-                    preferences?.edit()?.putBoolean(preferenceSaveResult, false)?.apply()
-                if (blockUnauthorized && app.type == AppType.PIRATE)
-                    preferences?.edit()?.putBoolean(preferenceBlockUnauthorized, true)?.apply()
-                doNotAllowCallback?.doNotAllow(
-                    if (app.type == AppType.STORE)
-                        PiracyCheckerError.THIRD_PARTY_STORE_INSTALLED
-                    else
-                        PiracyCheckerError.PIRATE_APP_INSTALLED, app
-                )
-            } else {
-                if (saveToSharedPreferences)
-                    preferences?.edit()?.putBoolean(preferenceSaveResult, true)?.apply()
-                allowCallback?.allow()
+        saveResult(context, configurationKey(), verdict)
+        // Package events are handled on a worker thread, never where the checks were started
+        onResolved(generation.get(), verdict, false, onMainThread = true)
+    }
+
+    /**
+     * @param allowed
+     * Whether the AllowCallback was already called from a previous verdict
+     * @param onMainThread
+     * Whether the verdict was reached on a thread of the library, not by the checks
+     */
+    private fun onResolved(
+        generation: Int,
+        verdict: PiracyVerdict,
+        allowed: Boolean,
+        onMainThread: Boolean = false
+    ) {
+        if (!isActive(generation)) return
+        if (allowed && verdict.status == VerdictStatus.ALLOWED) return
+        // Verdicts reached at the deadline are resolved on the scheduler thread
+        deliver(generation, onMainThread = onMainThread || !verdict.isFresh) {
+            val error = verdict.error ?: PiracyCheckerError.UNKNOWN
+            when (verdict.status) {
+                VerdictStatus.ALLOWED -> allowCallback?.allow()
+                VerdictStatus.NOT_ALLOWED -> {
+                    val revokeCallback = revokeCallback
+                    if (allowed && revokeCallback != null)
+                        revokeCallback.revoke(error, verdict.pirateApp)
+                    else doNotAllowCallback?.doNotAllow(error, verdict.pirateApp)
+                }
+                VerdictStatus.ERROR -> onErrorCallback?.onError(error)
             }
-        } else {
-            if (app != null) {
+        }
+    }
+
+    /**
+     * Saves the result once per verification, even if several checkers were waiting for it.
+     */
+    private fun saveResult(context: Context, key: String, verdict: PiracyVerdict) {
+        if (deadlineMillis > 0)
+            VerdictStore.saveCheckResults(context, configurationKey(true), verdict.outcomes)
+        // A verdict reached after the deadline is only a guess, it's not reused
+        if (verdict.isFresh) {
+            if (verdictCacheTtlMillis > 0) {
+                // Built here, as the entry is checked on the main thread for every package change.
+                // Any app can be signed with a blocked certificate
+                val isWatched: (String) -> Boolean =
+                    if (blockedCertificates.isNotEmpty()) { _ -> true }
+                    else context.cataloguedPackages(ArrayList(extraApps), catalog)
+                VerdictCache.put(context, key, verdict, verdictCacheTtlMillis, isWatched)
+            }
+            if (optimisticMaxAgeMillis > 0)
+                VerdictStore.save(context, configurationKey(true), verdict)
+        }
+        when (verdict.status) {
+            VerdictStatus.ALLOWED ->
                 if (saveToSharedPreferences)
+                    preferences?.edit()?.putBoolean(preferenceSaveResult, true)?.apply()
+            VerdictStatus.NOT_ALLOWED -> {
+                // The result is only saved once the license has been checked, as it used to be
+                if (saveToSharedPreferences && verdict.error !in PRE_LICENSE_ERRORS)
                     preferences?.edit()?.putBoolean(preferenceSaveResult, false)?.apply()
-                if (blockUnauthorized && app.type == AppType.PIRATE)
+                if (blockUnauthorized && verdict.pirateApp?.type == AppType.PIRATE)
                     preferences?.edit()?.putBoolean(preferenceBlockUnauthorized, true)?.apply()
-                doNotAllowCallback?.doNotAllow(
-                    if (app.type == AppType.STORE)
-                        PiracyCheckerError.THIRD_PARTY_STORE_INSTALLED
-                    else
-                        PiracyCheckerError.PIRATE_APP_INSTALLED, app
-                )
-            } else {
-                if (saveToSharedPreferences)
-                    preferences?.edit()?.putBoolean(preferenceSaveResult, false)?.apply()
-                doNotAllowCallback?.doNotAllow(PiracyCheckerError.NOT_LICENSED, null)
+            }
+            VerdictStatus.ERROR -> {
             }
         }
     }
@@ -486,13 +878,31 @@ class PiracyChecker(
         dialog = null
     }
 
-    private fun destroyLVLChecker() {
-        libraryLVLChecker?.finishAllChecks()
-        libraryLVLChecker?.onDestroy()
-        libraryLVLChecker = null
-    }
-
     companion object {
+        /**
+         * Does the one-time setup of the checks enabled by [config] on a background thread, so
+         * the first call to [start] only has to run the checks. Call it from
+         * `Application.onCreate()` with the same configuration used later.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun prewarm(context: Context, config: PiracyChecker.() -> Unit = {}) {
+            val checker = PiracyChecker(context.applicationContext ?: context).apply(config)
+            ExecutorUtils.background.execute {
+                try {
+                    checker.prewarm()
+                } catch (e: Exception) {
+                    Log.w("PiracyChecker", "Could not prewarm the checks", e)
+                }
+            }
+        }
+
         private const val LIBRARY_PREFERENCES_NAME = "license_check"
+        private const val DEFAULT_VERDICT_CACHE_TTL_MILLIS = 5 * 60 * 1000L
+        private const val DEFAULT_OPTIMISTIC_MAX_AGE_MILLIS = 7 * 24 * 60 * 60 * 1000L
+        private val PRE_LICENSE_ERRORS = arrayOf(
+            PiracyCheckerError.SIGNATURE_NOT_VALID, PiracyCheckerError.INVALID_INSTALLER_ID,
+            PiracyCheckerError.BLOCK_PIRATE_APP
+        )
     }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.github.javiersantos.piracychecker
+
+import com.github.javiersantos.piracychecker.enums.CheckStatus
+import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.enums.VerdictStatus
+
+/**
+ * Result of a single check.
+ *
+ * @param check
+ * Identifier of the check, e.g. "signature", "installer" or "licensing"
+ * @param error
+ * The error reported by the check when it didn't pass
+ * @param app
+ * The [PirateApp] that made the check fail, if any
+ * @param durationMillis
+ * Time the check took to give a result
+ * @param timedOut
+ * Whether the check didn't finish before the deadline
+ * @param fromCache
+ * Whether the check timed out and its last saved result was used instead. When it's false for a
+ * timed out check, the default result of the deadline was used.
+ */
+class CheckOutcome internal constructor(
+    val check: String,
+    val status: CheckStatus,
+    val error: PiracyCheckerError?,
+    val app: PirateApp?,
+    val durationMillis: Long,
+    val timedOut: Boolean = false,
+    val fromCache: Boolean = false
+) {
+    override fun toString(): String =
+        "$check: $status ($durationMillis ms${if (timedOut) ", timed out" else ""})"
+}
+
+/**
+ * Full result of a verification.
+ *
+ * @param status
+ * [VerdictStatus.ALLOWED] when every check passed, [VerdictStatus.NOT_ALLOWED] when the app
+ * must be blocked or [VerdictStatus.ERROR] if the license check couldn't be completed
+ * @param error
+ * The error that would have been reported to the DoNotAllowCallback or OnErrorCallback
+ * @param pirateApp
+ * The [PirateApp] that would have been reported to the DoNotAllowCallback
+ * @param pirateApps
+ * Every [PirateApp] detected on device
+ * @param outcomes
+ * The outcome of each enabled check
+ */
+class PiracyVerdict internal constructor(
+    val status: VerdictStatus,
+    val error: PiracyCheckerError?,
+    val pirateApp: PirateApp?,
+    val pirateApps: List<PirateApp>,
+    val outcomes: List<CheckOutcome>
+) {
+    val isAllowed: Boolean
+        get() = status == VerdictStatus.ALLOWED
+
+    fun outcome(check: String): CheckOutcome? = outcomes.firstOrNull { it.check == check }
+
+    internal val isComplete: Boolean
+        get() = outcomes.none { it.status == CheckStatus.CANCELLED }
+
+    // Whether every check finished in time
+    internal val isFresh: Boolean
+        get() = outcomes.none { it.timedOut }
+
+    override fun toString(): String = "PiracyVerdict($status, $error, $outcomes)"
+}
@@ -0,0 +1,68 @@
+package com.github.javiersantos.piracychecker
+
+import android.content.Context
+import android.os.SystemClock
+import com.github.javiersantos.piracychecker.enums.VerdictStatus
+import com.github.javiersantos.piracychecker.utils.PackageChangeMonitor
+
+/**
+ * In-process cache of verdicts shared by every [PiracyChecker], keyed by the checks
+ * configuration. Entries expire after their TTL or as soon as the app itself or any package
+ * watched by the configuration is installed, updated or removed.
+ */
+internal object VerdictCache {
+    private class Entry(
+        val verdict: PiracyVerdict,
+        val expiresAt: Long,
+        val packageName: String,
+        val isWatched: (String) -> Boolean
+    ) {
+        fun isWatching(changedPackage: String): Boolean =
+            changedPackage == packageName || isWatched(changedPackage)
+    }
+
+    private val entries = HashMap<String, Entry>()
+
+    private val onPackageChanged: (String) -> Unit = { changedPackage ->
+        synchronized(this) {
+            entries.values.removeAll { it.isWatching(changedPackage) }
+        }
+    }
+
+    @Synchronized
+    fun get(key: String): PiracyVerdict? {
+        val entry = entries[key] ?: return null
+        if (SystemClock.elapsedRealtime() >= entry.expiresAt) {
+            entries.remove(key)
+            return null
+        }
+        return entry.verdict
+    }
+
+    /**
+     * @param isWatched
+     * Whether a package change expires the entry. Called on the main thread for every package
+     * installed, updated or removed, so it must not read or build anything.
+     */
+    fun put(
+        context: Context,
+        key: String,
+        verdict: PiracyVerdict,
+        ttlMillis: Long,
+        isWatched: (String) -> Boolean
+    ) {
+        // Errors are transient, so they are always checked again
+        if (verdict.status == VerdictStatus.ERROR || ttlMillis <= 0) return
+        PackageChangeMonitor.addListener(context, onPackageChanged)
+        synchronized(this) {
+            entries[key] = Entry(
+                verdict, SystemClock.elapsedRealtime() + ttlMillis, context.packageName, isWatched
+            )
+        }
+    }
+
+    @Synchronized
+    fun invalidate() {
+        entries.clear()
+    }
+}
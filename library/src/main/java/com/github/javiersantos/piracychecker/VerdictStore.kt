@@ -0,0 +1,184 @@
+package com.github.javiersantos.piracychecker
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.provider.Settings
+import android.util.Base64
+import com.github.javiersantos.piracychecker.checks.PiracyCheckResult
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.CheckStatus
+import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.enums.VerdictStatus
+import com.github.javiersantos.piracychecker.utils.ChangedPackagesScan
+import com.github.javiersantos.piracychecker.utils.SaltUtils
+import java.security.MessageDigest
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Persists the last verdict of each configuration, the last result of each of its checks and the
+ * state of the last scan of the installed packages, signed with a key derived from the app salt,
+ * the package name and the device id, so a value copied from another device or edited by hand is
+ * ignored.
+ */
+internal object VerdictStore {
+    private const val PREFERENCES_NAME = "com.github.javiersantos.piracychecker.verdicts"
+    private const val MAC_ALGORITHM = "HmacSHA256"
+    private const val BASE64_FLAGS = Base64.NO_WRAP or Base64.URL_SAFE
+    private const val SCAN_STATE_KEY = "scan"
+
+    /**
+     * Whether the last verdict saved for [configurationKey] allowed the app and is not older
+     * than [maxAgeMillis].
+     */
+    fun isAllowed(context: Context, configurationKey: String, maxAgeMillis: Long): Boolean {
+        val fields = load(context, preferenceKey(configurationKey)) ?: return false
+        if (fields.size != 2 || fields[0] != VerdictStatus.ALLOWED.name) return false
+        val age = System.currentTimeMillis() - (fields[1].toLongOrNull() ?: return false)
+        return age in 0..maxAgeMillis
+    }
+
+    fun save(context: Context, configurationKey: String, verdict: PiracyVerdict) {
+        val key = preferenceKey(configurationKey)
+        when (verdict.status) {
+            VerdictStatus.ALLOWED ->
+                store(context, key, listOf(verdict.status.name, "${System.currentTimeMillis()}"))
+            VerdictStatus.NOT_ALLOWED -> clear(context, key)
+            // The license couldn't be checked, keep the last known verdict
+            VerdictStatus.ERROR -> {
+            }
+        }
+    }
+
+    /**
+     * Saves the result of every check that finished, so it can be used when the check doesn't
+     * finish before the deadline next time.
+     */
+    fun saveCheckResults(
+        context: Context,
+        configurationKey: String,
+        outcomes: List<CheckOutcome>
+    ) {
+        outcomes.filter {
+            !it.fromCache && !it.timedOut &&
+                    (it.status == CheckStatus.PASSED || it.status == CheckStatus.FAILED)
+        }.forEach {
+            store(
+                context, preferenceKey("$configurationKey#${it.check}"),
+                listOf(
+                    it.status.name, it.error?.name.orEmpty(), it.app?.name.orEmpty(),
+                    it.app?.packageName.orEmpty(), it.app?.type?.name.orEmpty()
+                )
+            )
+        }
+    }
+
+    fun loadCheckResult(
+        context: Context,
+        configurationKey: String,
+        check: String
+    ): PiracyCheckResult? {
+        val fields = load(context, preferenceKey("$configurationKey#$check")) ?: return null
+        if (fields.size != 5) return null
+        return try {
+            if (CheckStatus.valueOf(fields[0]) == CheckStatus.PASSED) {
+                PiracyCheckResult.passed()
+            } else {
+                val app = if (fields[3].isNotEmpty())
+                    PirateApp(fields[2], fields[3], AppType.valueOf(fields[4]))
+                else null
+                PiracyCheckResult.failed(PiracyCheckerError.valueOf(fields[1]), app)
+            }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    /**
+     * Saves the packages matched by the last scan of the apps identified by the key of [state].
+     * Signed, so an edited state can't hide an app from the next scans.
+     */
+    fun saveScanState(context: Context, state: ChangedPackagesScan.State) {
+        store(
+            context, preferenceKey("$SCAN_STATE_KEY|${state.key}"),
+            listOf(
+                state.key, "${state.cursor.bootCount}", "${state.cursor.sequenceNumber}"
+            ) + state.matched
+        )
+    }
+
+    fun loadScanState(context: Context, scanKey: String): ChangedPackagesScan.State? {
+        val fields = load(context, preferenceKey("$SCAN_STATE_KEY|$scanKey")) ?: return null
+        if (fields.size < 3 || fields[0] != scanKey) return null
+        val cursor = ChangedPackagesScan.Cursor(
+            fields[1].toIntOrNull() ?: return null, fields[2].toIntOrNull() ?: return null
+        )
+        return ChangedPackagesScan.State(fields[0], cursor, fields.drop(3).toSet())
+    }
+
+    private fun clear(context: Context, key: String) {
+        try {
+            preferences(context).edit().remove(key).apply()
+        } catch (_: Exception) {
+        }
+    }
+
+    /**
+     * Returns the saved fields, or null if nothing was saved or the signature is invalid.
+     */
+    private fun load(context: Context, key: String): List<String>? {
+        return try {
+            val stored = preferences(context).getString(key, null) ?: return null
+            val payload = stored.substringBeforeLast("|")
+            if (!isSigned(context, "$key|$payload", stored.substringAfterLast("|"))) return null
+            payload.split("|").map { String(Base64.decode(it, BASE64_FLAGS)) }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private fun store(context: Context, key: String, fields: List<String>) {
+        try {
+            val payload = fields.joinToString("|") {
+                Base64.encodeToString(it.toByteArray(), BASE64_FLAGS)
+            }
+            preferences(context).edit()
+                .putString(key, "$payload|${sign(context, "$key|$payload")}").apply()
+        } catch (_: Exception) {
+        }
+    }
+
+    /**
+     * Whether [signature] was returned by [sign] for [data] on this device.
+     */
+    fun isSigned(context: Context, data: String, signature: String): Boolean =
+        // Constant-time comparison
+        MessageDigest.isEqual(sign(context, data).toByteArray(), signature.toByteArray())
+
+    /**
+     * Signs [data] with the key of the store, for the values the library keeps in other files.
+     */
+    @SuppressLint("HardwareIds")
+    fun sign(context: Context, data: String): String {
+        val deviceId =
+            Settings.Secure.getString(context.contentResolver, Settings.Secure.ANDROID_ID)
+        val secret = MessageDigest.getInstance("SHA-256").run {
+            update(SaltUtils.getSalt(context) ?: ByteArray(0))
+            update("${context.packageName}|$deviceId".toByteArray())
+            digest()
+        }
+        val mac = Mac.getInstance(MAC_ALGORITHM)
+        mac.init(SecretKeySpec(secret, MAC_ALGORITHM))
+        return Base64.encodeToString(mac.doFinal(data.toByteArray()), BASE64_FLAGS)
+    }
+
+    // The configuration key contains the license key, so only a hash of it is stored
+    private fun preferenceKey(configurationKey: String): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(configurationKey.toByteArray())
+        return Base64.encodeToString(digest, BASE64_FLAGS)
+    }
+
+    private fun preferences(context: Context) =
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+}
@@ -0,0 +1,76 @@
+package com.github.javiersantos.piracychecker
+
+/**
+ * Keeps track of the verifications running in the process, so a checker started while another
+ * one with the same configuration is still running waits for its result instead of running every
+ * check again.
+ */
+internal object VerificationFlights {
+    class Flight {
+        val listeners = ArrayList<(PiracyVerdict) -> Unit>()
+        var pipeline: VerificationPipeline? = null
+        var done = false
+    }
+
+    /**
+     * Handle used by a checker to stop waiting for the result.
+     */
+    class Subscription(
+        private val key: String,
+        private val flight: Flight,
+        private val listener: (PiracyVerdict) -> Unit
+    ) {
+        fun cancel() = leave(key, flight, listener)
+    }
+
+    private val flights = HashMap<String, Flight>()
+
+    /**
+     * Adds [listener] to the verification running for [key], or starts a new one with [launch].
+     * [launch] receives the function the pipeline must call with its verdict.
+     */
+    fun join(
+        key: String,
+        listener: (PiracyVerdict) -> Unit,
+        launch: ((PiracyVerdict) -> Unit) -> VerificationPipeline
+    ): Subscription {
+        val flight = synchronized(this) {
+            flights[key]?.let {
+                it.listeners.add(listener)
+                return Subscription(key, it, listener)
+            }
+            Flight().also {
+                it.listeners.add(listener)
+                flights[key] = it
+            }
+        }
+        val pipeline = launch { complete(key, flight, it) }
+        val orphan = synchronized(this) {
+            flight.pipeline = pipeline
+            // Every checker left while the pipeline was being started
+            !flight.done && flight.listeners.isEmpty()
+        }
+        if (orphan) pipeline.cancel()
+        return Subscription(key, flight, listener)
+    }
+
+    private fun complete(key: String, flight: Flight, verdict: PiracyVerdict) {
+        val listeners = synchronized(this) {
+            if (flights[key] === flight) flights.remove(key)
+            flight.done = true
+            flight.listeners.toList().also { flight.listeners.clear() }
+        }
+        listeners.forEach { it(verdict) }
+    }
+
+    private fun leave(key: String, flight: Flight, listener: (PiracyVerdict) -> Unit) {
+        val pipeline = synchronized(this) {
+            if (flight.done || !flight.listeners.remove(listener)) return
+            if (flight.listeners.isNotEmpty()) return
+            if (flights[key] === flight) flights.remove(key)
+            flight.pipeline
+        }
+        // Nobody is waiting for the result anymore
+        pipeline?.cancel()
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.javiersantos.piracychecker
+
+import android.content.Context
+import android.os.SystemClock
+import com.github.javiersantos.piracychecker.checks.PiracyCheck
+import com.github.javiersantos.piracychecker.checks.PiracyCheckResult
+import com.github.javiersantos.piracychecker.enums.CheckStatus
+import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.enums.VerdictStatus
+import com.github.javiersantos.piracychecker.utils.ExecutorUtils
+import java.util.concurrent.Executor
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+
+internal sealed class Resolution {
+    object Allow : Resolution()
+    class DoNotAllow(val error: PiracyCheckerError, val app: PirateApp?) : Resolution()
+    class Error(val error: PiracyCheckerError) : Resolution()
+}
+
+/**
+ * Time limit of a verification. When it expires, the checks that haven't finished use the result
+ * returned by [fallback] or, if there's none, pass or fail depending on [passByDefault].
+ */
+internal class Deadline(
+    val millis: Long,
+    val passByDefault: Boolean,
+    val fallback: (String) -> PiracyCheckResult?
+)
+
+/**
+ * Starts the enabled checks from the cheapest to the most expensive one, letting them run at the
+ * same time, and reports the first result that can no longer be changed by the checks still
+ * running. Checks that are not needed anymore are cancelled, unless [exhaustive] is true, in
+ * which case the result is reported once every check has finished.
+ */
+internal class VerificationPipeline(
+    private val context: Context,
+    private val checks: List<PiracyCheck>,
+    private val executor: Executor,
+    private val exhaustive: Boolean = false,
+    private val deadline: Deadline? = null,
+    private val onResolved: (PiracyVerdict) -> Unit
+) {
+    private val ids = checks.map { it.id }.toSet()
+    private val results = HashMap<String, PiracyCheckResult>()
+    private val startTimes = HashMap<String, Long>()
+    private val durations = HashMap<String, Long>()
+    private val tasks = ArrayList<FutureTask<Unit>>()
+    private val timedOut = HashSet<String>()
+    private val fromCache = HashSet<String>()
+    private var timeout: Future<*>? = null
+    private var finished = false
+
+    fun start() {
+        if (checks.isEmpty()) {
+            // Nothing to wait for
+            onResult(null, null)
+            return
+        }
+        deadline?.let {
+            val timeout = ExecutorUtils.scheduler.schedule(
+                { onDeadline(it) }, it.millis, TimeUnit.MILLISECONDS
+            )
+            synchronized(this) { this.timeout = timeout }
+        }
+        // sortedBy is stable, so checks with the same cost keep the order they were added in
+        for (check in checks.sortedBy { it.cost }) {
+            val task = FutureTask({
+                if (!isFinished()) {
+                    synchronized(this) { startTimes[check.id] = SystemClock.elapsedRealtime() }
+                    try {
+                        check.execute(context) { onResult(check.id, it) }
+                    } catch (e: Exception) {
+                        // A check that crashes can't be trusted
+                        onResult(check.id, PiracyCheckResult.failed(PiracyCheckerError.UNKNOWN))
+                    }
+                }
+            }, Unit)
+            synchronized(this) {
+                if (finished) return
+                tasks.add(task)
+            }
+            executor.execute(task)
+        }
+    }
+
+    fun cancel() {
+        synchronized(this) {
+            if (finished) return
+            finished = true
+        }
+        cancelChecks()
+    }
+
+    @Synchronized
+    private fun isFinished(): Boolean = finished
+
+    private fun onResult(id: String?, result: PiracyCheckResult?) {
+        val verdict = synchronized(this) {
+            if (finished) return
+            if (id != null && result != null && id !in durations) {
+                val now = SystemClock.elapsedRealtime()
+                results[id] = result
+                durations[id] = now - (startTimes[id] ?: now)
+            }
+            if (exhaustive && checks.any { it.id !in durations }) return
+            val resolution = resolve() ?: return
+            finished = true
+            buildVerdict(resolution)
+        }
+        cancelChecks()
+        onResolved(verdict)
+    }
+
+    private fun onDeadline(deadline: Deadline) {
+        val pending = synchronized(this) {
+            if (finished) return
+            checks.filter { it.id !in durations }
+        }
+        // Saved results are read without holding the lock
+        val saved = pending.associate { it.id to deadline.fallback(it.id) }
+        val verdict = synchronized(this) {
+            if (finished) return
+            val now = SystemClock.elapsedRealtime()
+            pending.filter { it.id !in durations }.forEach {
+                val result = saved[it.id]
+                results[it.id] = result ?: defaultResult(it.id, deadline.passByDefault)
+                durations[it.id] = now - (startTimes[it.id] ?: now)
+                timedOut.add(it.id)
+                if (result != null) fromCache.add(it.id)
+            }
+            val resolution = resolve() ?: return
+            finished = true
+            buildVerdict(resolution)
+        }
+        cancelChecks()
+        onResolved(verdict)
+    }
+
+    private fun defaultResult(id: String, passed: Boolean): PiracyCheckResult {
+        if (passed) return PiracyCheckResult.passed()
+        return PiracyCheckResult.failed(
+            when (id) {
+                PiracyCheck.SIGNATURE -> PiracyCheckerError.SIGNATURE_NOT_VALID
+                PiracyCheck.INSTALLER -> PiracyCheckerError.INVALID_INSTALLER_ID
+                PiracyCheck.BLOCKED -> PiracyCheckerError.BLOCK_PIRATE_APP
+                PiracyCheck.LICENSING -> PiracyCheckerError.NOT_LICENSED
+                PiracyCheck.DEBUG -> PiracyCheckerError.USING_DEBUG_APP
+                PiracyCheck.EMULATOR -> PiracyCheckerError.USING_APP_IN_EMULATOR
+                PiracyCheck.PIRATE_APP -> PiracyCheckerError.PIRATE_APP_INSTALLED
+                else -> PiracyCheckerError.UNKNOWN
+            }
+        )
+    }
+
+    private fun cancelChecks() {
+        synchronized(this) { timeout }?.cancel(false)
+        // Never interrupt: when running on the caller thread it could be the thread reporting
+        synchronized(this) { tasks.toList() }.forEach { it.cancel(false) }
+        checks.forEach {
+            try {
+                it.cancel()
+            } catch (_: Exception) {
+            }
+        }
+    }
+
+    // Checks that are not enabled always pass
+    private fun resultOf(id: String): PiracyCheckResult? =
+        if (id in ids) results[id] else PiracyCheckResult.passed()
+
+    /**
+     * Gives the same result as running the checks one after another: signature, installer, block
+     * flag and custom checks first, then the license and, depending on it, debug, emulator and
+     * pirate apps. Returns null while a check that can still change the result hasn't finished.
+     * Must be called holding the lock.
+     */
+    private fun resolve(): Resolution? {
+        val gates = listOf(PiracyCheck.SIGNATURE, PiracyCheck.INSTALLER, PiracyCheck.BLOCKED) +
+                checks.map { it.id }.filterNot { it in BUILT_IN_CHECKS }
+        for (id in gates) {
+            val result = resultOf(id) ?: return null
+            when (result.status) {
+                CheckStatus.FAILED -> return Resolution.DoNotAllow(
+                    result.error ?: PiracyCheckerError.UNKNOWN, result.app
+                )
+                CheckStatus.ERROR ->
+                    return Resolution.Error(result.error ?: PiracyCheckerError.UNKNOWN)
+                else -> {
+                }
+            }
+        }
+        val license = resultOf(PiracyCheck.LICENSING) ?: return null
+        if (license.status == CheckStatus.ERROR)
+            return Resolution.Error(license.error ?: PiracyCheckerError.UNKNOWN)
+        if (license.passed) {
+            for (id in arrayOf(PiracyCheck.DEBUG, PiracyCheck.EMULATOR)) {
+                val result = resultOf(id) ?: return null
+                if (!result.passed)
+                    return Resolution.DoNotAllow(result.error ?: PiracyCheckerError.UNKNOWN, null)
+            }
+        }
+        val pirateApp = resultOf(PiracyCheck.PIRATE_APP) ?: return null
+        if (!pirateApp.passed)
+            return Resolution.DoNotAllow(
+                pirateApp.error ?: PiracyCheckerError.PIRATE_APP_INSTALLED, pirateApp.app
+            )
+        return if (license.passed) Resolution.Allow
+        else Resolution.DoNotAllow(PiracyCheckerError.NOT_LICENSED, null)
+    }
+
+    // Must be called holding the lock
+    private fun buildVerdict(resolution: Resolution): PiracyVerdict {
+        val now = SystemClock.elapsedRealtime()
+        val outcomes = checks.map { check ->
+            val result = results[check.id]
+            val duration = durations[check.id]
+            if (result == null || duration == null) {
+                CheckOutcome(
+                    check.id, CheckStatus.CANCELLED, null, null,
+                    startTimes[check.id]?.let { now - it } ?: 0L
+                )
+            } else {
+                CheckOutcome(
+                    check.id, result.status, result.error, result.app, duration,
+                    check.id in timedOut, check.id in fromCache
+                )
+            }
+        }
+        val pirateApps = results[PiracyCheck.PIRATE_APP]?.apps.orEmpty()
+        return when (resolution) {
+            is Resolution.Allow ->
+                PiracyVerdict(VerdictStatus.ALLOWED, null, null, pirateApps, outcomes)
+            is Resolution.DoNotAllow -> PiracyVerdict(
+                VerdictStatus.NOT_ALLOWED, resolution.error, resolution.app, pirateApps, outcomes
+            )
+            is Resolution.Error ->
+                PiracyVerdict(VerdictStatus.ERROR, resolution.error, null, pirateApps, outcomes)
+        }
+    }
+
+    companion object {
+        val BUILT_IN_CHECKS = setOf(
+            PiracyCheck.SIGNATURE, PiracyCheck.INSTALLER, PiracyCheck.BLOCKED,
+            PiracyCheck.LICENSING, PiracyCheck.DEBUG, PiracyCheck.EMULATOR, PiracyCheck.PIRATE_APP
+        )
+    }
+}
@@ -42,6 +42,30 @@ interface OnErrorCallback {
     fun onError(error: PiracyCheckerError) {}
 }
 
+interface RevokeCallback {
+    /**
+     * Called when the app was allowed from a previous verdict but the checks that ran afterwards
+     * didn't allow it. Check errors at [PiracyCheckerError].
+     *
+     * @param error
+     * The error that would have been reported to the DoNotAllowCallback
+     * @param app
+     * The [PirateApp] that has been detected on device. Returns null in no app was
+     * found.
+     */
+    fun revoke(error: PiracyCheckerError, app: PirateApp?)
+}
+
+interface DetectionCallback {
+    /**
+     * Called for every unauthorized app as soon as it's found, while the scan is still running.
+     *
+     * @param app
+     * The [PirateApp] that has been detected on device
+     */
+    fun detected(app: PirateApp)
+}
+
 abstract class PiracyCheckerCallback : AllowCallback,
     DoNotAllowCallback,
     OnErrorCallback
\ No newline at end of file
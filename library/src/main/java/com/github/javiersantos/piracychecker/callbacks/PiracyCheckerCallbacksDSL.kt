@@ -12,4 +12,10 @@ class PiracyCheckerCallbacksDSL internal constructor(private val checker: Piracy
 
     fun onError(onErrorCallback: OnErrorCallback): PiracyChecker =
         checker.onErrorCallback(onErrorCallback)
+
+    fun revoke(revokeCallback: RevokeCallback): PiracyChecker =
+        checker.revokeCallback(revokeCallback)
+
+    fun detected(detectionCallback: DetectionCallback): PiracyChecker =
+        checker.detectionCallback(detectionCallback)
 }
\ No newline at end of file
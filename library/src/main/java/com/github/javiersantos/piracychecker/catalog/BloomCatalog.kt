@@ -0,0 +1,170 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import android.content.Context
+import android.util.Log
+import com.github.javiersantos.piracychecker.VerdictCache
+import com.github.javiersantos.piracychecker.enums.MatchMode
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.utils.BloomFilter
+import com.github.javiersantos.piracychecker.utils.ExecutorUtils
+import com.github.javiersantos.piracychecker.utils.PackageMatcher
+import java.util.BitSet
+
+/**
+ * Catalog too large to be kept in memory. Only a [BloomFilter] of the package names matched
+ * exactly or by prefix is, along with the apps matched anywhere in the package name, which are
+ * expected to be few. The package names found in the filter are confirmed by reading the catalog
+ * again, so a false positive costs a read of the catalog but never reports an app.
+ */
+internal class BloomCatalog private constructor(
+    private val source: CatalogSource,
+    private val filter: BloomFilter,
+    private val prefixLengths: BitSet,
+    private val anywhere: List<IndexedValue<PirateApp>>
+) {
+    // Candidates of the last lookup and the apps confirmed, the installed apps rarely change
+    @Volatile
+    private var last: Pair<Set<String>, List<IndexedValue<PirateApp>>>? = null
+
+    /**
+     * Returns the apps matched by any of the [packageNames], in catalog order.
+     *
+     * @throws java.io.IOException if the catalog can't be read again to confirm a match
+     */
+    fun find(context: Context, packageNames: Collection<String>): List<PirateApp> {
+        val candidates = HashSet<String>()
+        for (name in packageNames) {
+            if (filter.mightContain(name)) candidates.add(name)
+            // Only the prefixes as long as one of the catalog are looked up
+            var length = prefixLengths.nextSetBit(1)
+            while (length in 1 until name.length) {
+                if (filter.mightContain(name, length)) candidates.add(name.substring(0, length))
+                length = prefixLengths.nextSetBit(length + 1)
+            }
+        }
+
+        val found = anywhere.filter { (_, app) ->
+            packageNames.any { PackageMatcher.matches(app, it) }
+        }.toMutableList()
+        if (candidates.isNotEmpty()) {
+            found += last?.takeIf { it.first == candidates }?.second
+                ?: confirm(context, candidates, packageNames.toHashSet())
+                    .also { last = candidates to it }
+            found.sortBy { it.index }
+        }
+        return found.map { it.value }
+    }
+
+    /**
+     * Whether [packageName] may match any of the apps. Unlike [find], the catalog isn't read
+     * again, so it may be true for a few packages that don't.
+     */
+    fun mightMatch(packageName: String): Boolean {
+        if (filter.mightContain(packageName)) return true
+        var length = prefixLengths.nextSetBit(1)
+        while (length in 1 until packageName.length) {
+            if (filter.mightContain(packageName, length)) return true
+            length = prefixLengths.nextSetBit(length + 1)
+        }
+        return anywhere.any { PackageMatcher.matches(it.value, packageName) }
+    }
+
+    /**
+     * Reads the catalog again, one entry at a time, for the apps not kept in memory.
+     */
+    fun <R> read(context: Context, block: (Sequence<PirateApp>) -> R): R =
+        CatalogReader(source.open(context)).use { block(it.asSequence()) }
+
+    // Candidates are installed package names or prefixes of them
+    private fun confirm(
+        context: Context,
+        candidates: Set<String>,
+        packageNames: Set<String>
+    ): List<IndexedValue<PirateApp>> = read(context) { apps ->
+        apps.withIndex().filter { (_, app) ->
+            when (app.matchMode) {
+                MatchMode.CONTAINS -> false
+                MatchMode.PREFIX -> app.packageName in candidates
+                MatchMode.EXACT -> app.packageName in packageNames
+            }
+        }.toList()
+    }
+
+    companion object {
+        private const val TAG = "PiracyChecker"
+
+        private class Loaded(val key: String, val source: CatalogSource, val catalog: BloomCatalog?)
+
+        // Last filter built from each source, by source id
+        private val loaded = HashMap<String, Loaded>()
+        private val reloading = HashSet<String>()
+
+        /**
+         * Returns the filter of the catalog read from [source], or null if it can't be read.
+         * When the catalog changes, the previous filter is used until the new one has been built
+         * in background.
+         */
+        fun of(context: Context, source: CatalogSource): BloomCatalog? {
+            val key = source.key
+            synchronized(loaded) { loaded[source.id] }?.let { current ->
+                if (current.key != key) refresh(context, source)
+                return current.catalog
+            }
+            // A catalog that can't be read isn't read again until it changes
+            val catalog = build(context, source, key)
+            synchronized(loaded) { loaded[source.id] = Loaded(key, source, catalog) }
+            return catalog
+        }
+
+        /**
+         * Builds the filter of [source] again in background, if it has already been built. The
+         * previous filter is used until the new one is ready.
+         */
+        fun refresh(context: Context, source: CatalogSource) {
+            val current = synchronized(loaded) {
+                val current = loaded[source.id] ?: return
+                if (!reloading.add(source.id)) return
+                current
+            }
+            val appContext = context.applicationContext ?: context
+            ExecutorUtils.background.execute {
+                try {
+                    // With the false positive rate of the checkers using it
+                    val key = current.source.key
+                    val catalog = build(appContext, current.source, key)
+                    synchronized(loaded) {
+                        loaded[source.id] =
+                            Loaded(key, current.source, catalog ?: current.catalog)
+                    }
+                    // Verdicts reached with the previous apps are outdated
+                    if (catalog != null) VerdictCache.invalidate()
+                } finally {
+                    synchronized(loaded) { reloading.remove(source.id) }
+                }
+            }
+        }
+
+        private fun build(context: Context, source: CatalogSource, key: String): BloomCatalog? =
+            try {
+                CatalogReader(source.open(context)).use { reader ->
+                    val filter = BloomFilter(reader.size, source.falsePositiveRate)
+                    val prefixLengths = BitSet()
+                    val anywhere = ArrayList<IndexedValue<PirateApp>>()
+                    reader.asSequence().forEachIndexed { index, app ->
+                        when (app.matchMode) {
+                            MatchMode.CONTAINS -> anywhere.add(IndexedValue(index, app))
+                            MatchMode.PREFIX -> {
+                                prefixLengths.set(app.packageName.length)
+                                filter.add(app.packageName)
+                            }
+                            MatchMode.EXACT -> filter.add(app.packageName)
+                        }
+                    }
+                    BloomCatalog(source, filter, prefixLengths, anywhere)
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Could not read the catalog $key", e)
+                null
+            }
+    }
+}
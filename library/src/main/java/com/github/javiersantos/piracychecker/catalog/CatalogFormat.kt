@@ -0,0 +1,81 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.MatchMode
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.io.IOException
+
+/**
+ * Binary catalog of apps. Every number is big-endian:
+ *
+ * - magic: the 4 bytes `PCAT`
+ * - version: unsigned short, currently [VERSION]
+ * - revision: int, the revision of the content, updated by every patch. Missing in version 1
+ * - count: int, the number of entries
+ * - entries, each one made of:
+ *   - type: byte, see [typeCode]
+ *   - match mode: byte, see [modeCode]
+ *   - name: unsigned short length followed by the name in modified UTF-8, as written by
+ *   `DataOutput.writeUTF`
+ *   - package: unsigned short length followed by the package name in UTF-8, obfuscated with
+ *   [obfuscate] so it can't be found by looking for the string in the file
+ *
+ * Patches have the same layout, with the magic `PCPT` and these fields after the version:
+ *
+ * - from revision: int, the revision of the catalog the patch applies to
+ * - to revision: int, the revision of the catalog once patched
+ * - count: int, the number of operations
+ * - operations, each one made of an operation code, see [Operation], followed by an entry for
+ *   [Operation.ADD] and [Operation.MODIFY] or just its package for [Operation.REMOVE]
+ * - signature: the SHA256withRSA signature of everything before it
+ * - signature length: int
+ */
+internal object CatalogFormat {
+    val MAGIC = "PCAT".toByteArray(Charsets.US_ASCII)
+    val PATCH_MAGIC = "PCPT".toByteArray(Charsets.US_ASCII)
+    const val VERSION = 2
+    const val PATCH_VERSION = 1
+    const val SIGNATURE_ALGORITHM = "SHA256withRSA"
+
+    // Position of the count in a catalog of the current version
+    val COUNT_OFFSET = MAGIC.size + 2 + 4
+
+    enum class Operation(val code: Int) { ADD(0), REMOVE(1), MODIFY(2) }
+
+    fun operation(code: Int): Operation =
+        Operation.values().firstOrNull { it.code == code }
+            ?: throw IOException("Unknown operation $code")
+
+    /**
+     * XORs [bytes] with a key stream. Applying it twice gives back the original bytes. It's the
+     * encoding [PirateApp] keeps package names in, so entries are read without decoding them.
+     */
+    fun obfuscate(bytes: ByteArray): ByteArray = PirateApp.transform(bytes)
+
+    // Stable codes, so reordering the enums doesn't break existing catalogs
+    fun typeCode(type: AppType): Int = when (type) {
+        AppType.PIRATE -> 0
+        AppType.STORE -> 1
+        AppType.OTHER -> 2
+    }
+
+    fun type(code: Int): AppType = when (code) {
+        0 -> AppType.PIRATE
+        1 -> AppType.STORE
+        2 -> AppType.OTHER
+        else -> throw IOException("Unknown app type $code")
+    }
+
+    fun modeCode(mode: MatchMode): Int = when (mode) {
+        MatchMode.CONTAINS -> 0
+        MatchMode.PREFIX -> 1
+        MatchMode.EXACT -> 2
+    }
+
+    fun mode(code: Int): MatchMode = when (code) {
+        0 -> MatchMode.CONTAINS
+        1 -> MatchMode.PREFIX
+        2 -> MatchMode.EXACT
+        else -> throw IOException("Unknown match mode $code")
+    }
+}
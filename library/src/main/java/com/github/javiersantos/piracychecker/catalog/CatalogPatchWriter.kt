@@ -0,0 +1,71 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.OutputStream
+import java.security.PrivateKey
+import java.security.Signature
+
+/**
+ * Writes a signed patch that updates a catalog from one revision to the next, to be applied with
+ * [CatalogPatcher.apply]. Apps are identified by their package name.
+ */
+class CatalogPatchWriter(private val output: OutputStream) : Closeable {
+    private val operations = ArrayList<Pair<CatalogFormat.Operation, PirateApp>>()
+
+    fun add(app: PirateApp): CatalogPatchWriter {
+        operations.add(CatalogFormat.Operation.ADD to app)
+        return this
+    }
+
+    fun remove(app: PirateApp): CatalogPatchWriter {
+        operations.add(CatalogFormat.Operation.REMOVE to app)
+        return this
+    }
+
+    /**
+     * Replaces the name, type or match mode of the app with the same package name.
+     */
+    fun modify(app: PirateApp): CatalogPatchWriter {
+        operations.add(CatalogFormat.Operation.MODIFY to app)
+        return this
+    }
+
+    /**
+     * Writes the operations added so far, signed with [privateKey], the RSA key matching the
+     * public key given to [CatalogPatcher.apply].
+     */
+    fun write(fromRevision: Int, toRevision: Int, privateKey: PrivateKey) {
+        val payload = ByteArrayOutputStream()
+        DataOutputStream(payload).use { data ->
+            data.write(CatalogFormat.PATCH_MAGIC)
+            data.writeShort(CatalogFormat.PATCH_VERSION)
+            data.writeInt(fromRevision)
+            data.writeInt(toRevision)
+            data.writeInt(operations.size)
+            for ((operation, app) in operations) {
+                data.writeByte(operation.code)
+                if (operation == CatalogFormat.Operation.REMOVE)
+                    CatalogWriter.writePackage(data, app.packageName)
+                else
+                    CatalogWriter.writeEntry(data, app)
+            }
+        }
+        val bytes = payload.toByteArray()
+        val signature = Signature.getInstance(CatalogFormat.SIGNATURE_ALGORITHM).run {
+            initSign(privateKey)
+            update(bytes)
+            sign()
+        }
+        DataOutputStream(output).apply {
+            write(bytes)
+            write(signature)
+            writeInt(signature.size)
+            flush()
+        }
+    }
+
+    override fun close() = output.close()
+}
@@ -0,0 +1,166 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import android.content.Context
+import android.util.Base64
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.utils.AppCatalog
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.security.GeneralSecurityException
+import java.security.KeyFactory
+import java.security.PublicKey
+import java.security.Signature
+import java.security.SignatureException
+import java.security.spec.X509EncodedKeySpec
+
+/**
+ * Applies the patches written with [CatalogPatchWriter] to a catalog file used with
+ * `PiracyChecker.withCatalog`.
+ */
+object CatalogPatcher {
+    private const val KEY_FACTORY_ALGORITHM = "RSA"
+
+    /**
+     * Verifies [patch] and applies it to [catalog]. The catalog is replaced at once, so it's left
+     * untouched if anything fails. It's copied one app at a time, only the apps of the patch are
+     * kept in memory. Checkers already using the catalog keep using the previous
+     * apps until the new ones have been read in background.
+     *
+     * @param publicKeyBase64
+     * Base64-encoded X.509 RSA public key matching the private key the patch was signed with
+     * @throws SignatureException if the patch wasn't signed with the matching private key
+     * @throws IOException if the patch is invalid or doesn't apply to the revision of the catalog
+     */
+    @JvmStatic
+    @Throws(IOException::class, GeneralSecurityException::class)
+    fun apply(context: Context, catalog: File, patch: File, publicKeyBase64: String) =
+        apply(context, catalog, patch, generatePublicKey(publicKeyBase64))
+
+    @Synchronized
+    @Throws(IOException::class, GeneralSecurityException::class)
+    internal fun apply(context: Context, catalog: File, patch: File, publicKey: PublicKey) {
+        val payload = verify(patch.readBytes(), publicKey)
+        DataInputStream(ByteArrayInputStream(payload)).use { input ->
+            val magic = ByteArray(CatalogFormat.PATCH_MAGIC.size)
+            input.readFully(magic)
+            if (!magic.contentEquals(CatalogFormat.PATCH_MAGIC)) throw IOException("Not a patch")
+            val version = input.readUnsignedShort()
+            if (version > CatalogFormat.PATCH_VERSION)
+                throw IOException("Unsupported patch version $version")
+            val fromRevision = input.readInt()
+            val toRevision = input.readInt()
+
+            // Only the apps of the patch are kept in memory: the new app of each package, null if
+            // it's removed, in the order the packages not in the catalog are added
+            val changes = LinkedHashMap<String, PirateApp?>()
+            // Removed and added again, so added last like a new app
+            val readded = HashSet<String>()
+            repeat(input.readInt()) {
+                when (CatalogFormat.operation(input.readUnsignedByte())) {
+                    CatalogFormat.Operation.ADD, CatalogFormat.Operation.MODIFY -> {
+                        val app = CatalogReader.readEntry(input)
+                        if (changes.containsKey(app.packageName) &&
+                            changes[app.packageName] == null
+                        ) {
+                            readded.add(app.packageName)
+                            changes.remove(app.packageName)
+                        }
+                        changes[app.packageName] = app
+                    }
+                    CatalogFormat.Operation.REMOVE -> {
+                        val packageName = CatalogReader.readPackage(input)
+                        changes.remove(packageName)
+                        changes[packageName] = null
+                    }
+                }
+            }
+
+            replace(catalog, toRevision) { writer ->
+                CatalogReader(FileInputStream(catalog)).use { reader ->
+                    if (reader.revision != fromRevision) throw IOException(
+                        "Patch for revision $fromRevision, catalog at revision ${reader.revision}"
+                    )
+                    // Streamed into the new catalog, replaced apps stay where they were
+                    val replaced = HashSet<String>()
+                    var size = 0
+                    for (app in reader) {
+                        val packageName = app.packageName
+                        if (!changes.containsKey(packageName)) {
+                            writer.write(app)
+                        } else {
+                            val changed = changes[packageName]
+                            if (changed == null || packageName in readded) continue
+                            writer.write(changed)
+                            replaced.add(packageName)
+                        }
+                        size++
+                    }
+                    changes.forEach { (packageName, app) ->
+                        if (app == null || packageName in replaced) return@forEach
+                        writer.write(app)
+                        size++
+                    }
+                    size
+                }
+            }
+        }
+        // Both are only read again if a checker has already used the catalog
+        AppCatalog.refresh(context, CatalogSource.LocalFile(catalog))
+        BloomCatalog.refresh(context, CatalogSource.LocalFile(catalog))
+    }
+
+    /**
+     * Returns the signed part of [bytes] if the signature at its end is valid.
+     */
+    private fun verify(bytes: ByteArray, publicKey: PublicKey): ByteArray {
+        if (bytes.size < 4) throw IOException("Not a patch")
+        val signatureSize = ByteBuffer.wrap(bytes, bytes.size - 4, 4).int
+        val payloadSize = bytes.size - 4 - signatureSize
+        if (signatureSize <= 0 || payloadSize < 0) throw IOException("Not a patch")
+        val signature = Signature.getInstance(CatalogFormat.SIGNATURE_ALGORITHM)
+        signature.initVerify(publicKey)
+        signature.update(bytes, 0, payloadSize)
+        if (!signature.verify(bytes, payloadSize, signatureSize))
+            throw SignatureException("Invalid patch signature")
+        return bytes.copyOf(payloadSize)
+    }
+
+    /**
+     * Writes the apps of the catalog with [writeApps], which returns how many were written, next
+     * to [catalog] and renames the file over it, which is atomic on the same file system.
+     */
+    private fun replace(catalog: File, revision: Int, writeApps: (CatalogWriter) -> Int) {
+        val temp = File(catalog.parentFile, "${catalog.name}.tmp")
+        try {
+            FileOutputStream(temp).use { output ->
+                val writer = CatalogWriter(output)
+                writer.writeHeader(revision, 0)
+                val size = writeApps(writer)
+                writer.flush()
+                // Only known once every app has been written
+                output.channel.write(
+                    ByteBuffer.allocate(4).putInt(0, size), CatalogFormat.COUNT_OFFSET.toLong()
+                )
+                output.fd.sync()
+            }
+            if (!temp.renameTo(catalog)) throw IOException("Could not replace $catalog")
+        } finally {
+            temp.delete()
+        }
+    }
+
+    private fun generatePublicKey(publicKeyBase64: String): PublicKey {
+        try {
+            val decodedKey = Base64.decode(publicKeyBase64, Base64.DEFAULT)
+            return KeyFactory.getInstance(KEY_FACTORY_ALGORITHM)
+                .generatePublic(X509EncodedKeySpec(decodedKey))
+        } catch (e: IllegalArgumentException) {
+            throw GeneralSecurityException("Invalid public key", e)
+        }
+    }
+}
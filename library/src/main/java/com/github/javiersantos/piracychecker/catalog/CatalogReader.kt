@@ -0,0 +1,74 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.io.BufferedInputStream
+import java.io.Closeable
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads a catalog written in the [CatalogFormat] one entry at a time, so only the entries already
+ * read are kept in memory.
+ *
+ * @throws IOException if the stream isn't a catalog or its version is not supported
+ */
+internal class CatalogReader(input: InputStream) : Closeable, Iterator<PirateApp> {
+    private val input = DataInputStream(BufferedInputStream(input))
+
+    val version: Int
+
+    /**
+     * Revision of the content, 0 for catalogs that have never been patched
+     */
+    val revision: Int
+
+    /**
+     * Number of entries in the catalog
+     */
+    val size: Int
+
+    private var read = 0
+
+    init {
+        val magic = ByteArray(CatalogFormat.MAGIC.size)
+        this.input.readFully(magic)
+        if (!magic.contentEquals(CatalogFormat.MAGIC)) throw IOException("Not a catalog")
+        version = this.input.readUnsignedShort()
+        if (version > CatalogFormat.VERSION)
+            throw IOException("Unsupported catalog version $version")
+        revision = if (version >= 2) this.input.readInt() else 0
+        size = this.input.readInt()
+        if (size < 0) throw IOException("Invalid catalog size $size")
+    }
+
+    override fun hasNext(): Boolean = read < size
+
+    override fun next(): PirateApp {
+        if (!hasNext()) throw NoSuchElementException()
+        read++
+        return readEntry(input)
+    }
+
+    override fun close() = input.close()
+
+    companion object {
+        fun readEntry(input: DataInput): PirateApp {
+            val type = CatalogFormat.type(input.readUnsignedByte())
+            val mode = CatalogFormat.mode(input.readUnsignedByte())
+            val name = input.readUTF()
+            // Kept obfuscated, it's decoded when the package name is first used
+            return PirateApp.fromEncoded(name, readObfuscatedPackage(input), type, mode)
+        }
+
+        fun readPackage(input: DataInput): String =
+            String(CatalogFormat.obfuscate(readObfuscatedPackage(input)), Charsets.UTF_8)
+
+        private fun readObfuscatedPackage(input: DataInput): ByteArray {
+            val pack = ByteArray(input.readUnsignedShort())
+            input.readFully(pack)
+            return pack
+        }
+    }
+}
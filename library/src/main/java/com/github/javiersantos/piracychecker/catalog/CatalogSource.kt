@@ -0,0 +1,93 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import android.content.Context
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStream
+
+/**
+ * Where a catalog replacing the built-in apps is read from.
+ *
+ * @param rate
+ * When greater than 0, the catalog is kept on disk and only a [BloomCatalog] of it is kept in
+ * memory, that finds apps that aren't installed at this rate before reading the catalog again
+ */
+internal sealed class CatalogSource(private val rate: Double) {
+    /**
+     * Identifies the catalog, whatever its content.
+     */
+    abstract val id: String
+
+    /**
+     * Identifies the catalog and its content: it changes when the catalog is replaced.
+     */
+    abstract val key: String
+
+    abstract fun open(context: Context): InputStream
+
+    /**
+     * Rate of the [BloomCatalog] of the catalog, [DEFAULT_FALSE_POSITIVE_RATE] for the large
+     * catalogs filtered without a rate.
+     */
+    val falsePositiveRate: Double
+        get() = if (rate > 0) rate else DEFAULT_FALSE_POSITIVE_RATE
+
+    // Whether the catalog is larger than MAX_IN_MEMORY_SIZE, by key
+    @Volatile
+    private var large: Pair<String, Boolean>? = null
+
+    /**
+     * Whether only a [BloomCatalog] of the catalog is kept in memory: when a rate was set, or when
+     * the catalog has more than [MAX_IN_MEMORY_SIZE] apps. Only the header of the catalog is
+     * read, once until it changes.
+     */
+    fun isFiltered(context: Context): Boolean {
+        if (rate > 0) return true
+        val key = key
+        large?.let { (largeKey, isLarge) -> if (largeKey == key) return isLarge }
+        val isLarge = try {
+            CatalogReader(open(context)).use { it.size > MAX_IN_MEMORY_SIZE }
+        } catch (_: Exception) {
+            // Read in memory, which falls back to the built-in apps
+            false
+        }
+        large = key to isLarge
+        return isLarge
+    }
+
+    companion object {
+        /**
+         * Catalogs with more apps are kept on disk even without a false positive rate, so the
+         * first check doesn't read and compile all of them.
+         */
+        const val MAX_IN_MEMORY_SIZE = 10_000
+
+        const val DEFAULT_FALSE_POSITIVE_RATE = 0.01
+    }
+
+    class Asset(
+        private val name: String,
+        rate: Double = 0.0
+    ) : CatalogSource(rate) {
+        override val id: String
+            get() = "asset:$name"
+
+        override val key: String
+            get() = id
+
+        override fun open(context: Context): InputStream = context.assets.open(name)
+    }
+
+    class LocalFile(
+        private val file: File,
+        rate: Double = 0.0
+    ) : CatalogSource(rate) {
+        override val id: String
+            get() = "file:${file.absolutePath}"
+
+        override val key: String
+            get() = "$id:${file.lastModified()}:${file.length()}"
+
+        override fun open(context: Context): InputStream = FileInputStream(file)
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.OutputStream
+
+/**
+ * Writes a catalog of apps that can be used with `PiracyChecker.withCatalog`.
+ */
+class CatalogWriter(output: OutputStream) : Closeable {
+    private val output = DataOutputStream(BufferedOutputStream(output))
+
+    /**
+     * @param revision
+     * Revision of the content, the one patches are created from
+     */
+    @JvmOverloads
+    fun write(apps: List<PirateApp>, revision: Int = 0) {
+        writeHeader(revision, apps.size)
+        apps.forEach { write(it) }
+        flush()
+    }
+
+    /**
+     * Starts a catalog whose apps are written one at a time with [write]. The [size] can be
+     * written again at [CatalogFormat.COUNT_OFFSET] once known.
+     */
+    internal fun writeHeader(revision: Int, size: Int) {
+        output.write(CatalogFormat.MAGIC)
+        output.writeShort(CatalogFormat.VERSION)
+        output.writeInt(revision)
+        output.writeInt(size)
+    }
+
+    internal fun write(app: PirateApp) = writeEntry(output, app)
+
+    internal fun flush() = output.flush()
+
+    override fun close() = output.close()
+
+    internal companion object {
+        fun writeEntry(output: DataOutput, app: PirateApp) {
+            output.writeByte(CatalogFormat.typeCode(app.type ?: AppType.OTHER))
+            output.writeByte(CatalogFormat.modeCode(app.matchMode))
+            output.writeUTF(app.name.orEmpty())
+            writeObfuscatedPackage(output, app.encodedPackageName)
+        }
+
+        fun writePackage(output: DataOutput, packageName: String) =
+            writeObfuscatedPackage(
+                output, CatalogFormat.obfuscate(packageName.toByteArray(Charsets.UTF_8))
+            )
+
+        private fun writeObfuscatedPackage(output: DataOutput, pack: ByteArray) {
+            output.writeShort(pack.size)
+            output.write(pack)
+        }
+    }
+}
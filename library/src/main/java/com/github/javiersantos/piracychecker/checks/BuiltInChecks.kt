@@ -0,0 +1,195 @@
+package com.github.javiersantos.piracychecker.checks
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.content.SharedPreferences
+import android.provider.Settings
+import com.github.javiersantos.licensing.AESObfuscator
+import com.github.javiersantos.licensing.LibraryChecker
+import com.github.javiersantos.licensing.LibraryCheckerCallback
+import com.github.javiersantos.licensing.ServerManagedPolicy
+import com.github.javiersantos.piracychecker.catalog.CatalogSource
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.InstallerID
+import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.utils.EmulatorDetector
+import com.github.javiersantos.piracychecker.utils.SaltUtils
+import com.github.javiersantos.piracychecker.utils.getPirateApp
+import com.github.javiersantos.piracychecker.utils.getPirateApps
+import com.github.javiersantos.piracychecker.utils.isDebug
+import com.github.javiersantos.piracychecker.utils.verifyInstallerId
+import com.github.javiersantos.piracychecker.utils.verifySigningCertificates
+
+internal class SigningCertificateCheck(private val signatures: Array<String>) : PiracyCheck {
+    override val id = PiracyCheck.SIGNATURE
+    override val cost = PiracyCheck.COST_LOW
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) = callback.onResult(
+        if (context.verifySigningCertificates(signatures)) PiracyCheckResult.passed()
+        else PiracyCheckResult.failed(PiracyCheckerError.SIGNATURE_NOT_VALID)
+    )
+}
+
+internal class InstallerCheck(private val installerIDs: List<InstallerID>) : PiracyCheck {
+    override val id = PiracyCheck.INSTALLER
+    override val cost = PiracyCheck.COST_LOW
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) = callback.onResult(
+        if (context.verifyInstallerId(installerIDs)) PiracyCheckResult.passed()
+        else PiracyCheckResult.failed(PiracyCheckerError.INVALID_INSTALLER_ID)
+    )
+}
+
+internal class BlockedCheck(
+    private val preferences: SharedPreferences?,
+    private val preferenceName: String?
+) : PiracyCheck {
+    override val id = PiracyCheck.BLOCKED
+    override val cost = PiracyCheck.COST_TRIVIAL
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) = callback.onResult(
+        if (preferences?.getBoolean(preferenceName, false) != true) PiracyCheckResult.passed()
+        else PiracyCheckResult.failed(PiracyCheckerError.BLOCK_PIRATE_APP)
+    )
+}
+
+internal class DebugCheck : PiracyCheck {
+    override val id = PiracyCheck.DEBUG
+    override val cost = PiracyCheck.COST_TRIVIAL
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) = callback.onResult(
+        if (!context.isDebug()) PiracyCheckResult.passed()
+        else PiracyCheckResult.failed(PiracyCheckerError.USING_DEBUG_APP)
+    )
+}
+
+internal class EmulatorCheck(
+    private val deepCheck: Boolean,
+    private val threshold: Int = EmulatorDetector.DEFAULT_THRESHOLD
+) : PiracyCheck {
+    override val id = PiracyCheck.EMULATOR
+    override val cost = if (deepCheck) PiracyCheck.COST_MEDIUM else PiracyCheck.COST_LOW
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) = callback.onResult(
+        if (!EmulatorDetector.isEmulator(context, deepCheck, threshold))
+            PiracyCheckResult.passed()
+        else PiracyCheckResult.failed(PiracyCheckerError.USING_APP_IN_EMULATOR)
+    )
+}
+
+internal class PirateAppCheck(
+    private val lpf: Boolean,
+    private val stores: Boolean,
+    private val folders: Boolean,
+    private val apks: Boolean,
+    private val extraApps: ArrayList<PirateApp>,
+    private val catalog: CatalogSource? = null,
+    private val blockedCertificates: Set<String> = emptySet(),
+    private val exhaustive: Boolean = false,
+    private val live: Boolean = false,
+    private val onDetected: (PirateApp) -> Unit = {}
+) : PiracyCheck {
+    override val id = PiracyCheck.PIRATE_APP
+    override val cost = PiracyCheck.COST_HIGH
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) {
+        val apps = if (exhaustive) {
+            context.getPirateApps(
+                lpf, stores, folders, apks, extraApps, catalog, blockedCertificates, live,
+                onDetected
+            )
+        } else {
+            listOfNotNull(
+                context.getPirateApp(
+                    lpf, stores, folders, apks, extraApps, catalog, blockedCertificates, live
+                )
+            )
+        }
+        val app = apps.firstOrNull()
+        callback.onResult(
+            when {
+                app == null -> PiracyCheckResult.passed()
+                app.type == AppType.STORE ->
+                    PiracyCheckResult.failed(PiracyCheckerError.THIRD_PARTY_STORE_INSTALLED, apps)
+                else -> PiracyCheckResult.failed(PiracyCheckerError.PIRATE_APP_INSTALLED, apps)
+            }
+        )
+    }
+}
+
+/**
+ * Runs the LVL check. Only the key derivation and the service binding happen in [execute], the
+ * result is reported later from the LVL handler thread.
+ */
+@SuppressLint("HardwareIds")
+internal class LicensingCheck(private val licenseBase64: String?) : PiracyCheck {
+    override val id = PiracyCheck.LICENSING
+    override val cost = PiracyCheck.COST_MEDIUM
+
+    @Volatile
+    private var cancelled = false
+    private var libraryLVLChecker: LibraryChecker? = null
+
+    override fun execute(context: Context, callback: PiracyCheckCallback) {
+        // The service connection may outlive the checker that started it when other checkers
+        // are waiting for the same result, so it's never bound to an Activity
+        val appContext = context.applicationContext ?: context
+        val deviceId =
+            Settings.Secure.getString(appContext.contentResolver, Settings.Secure.ANDROID_ID)
+        val checker = LibraryChecker(
+            appContext,
+            ServerManagedPolicy(
+                appContext,
+                AESObfuscator(SaltUtils.getSalt(appContext), appContext.packageName, deviceId)
+            ),
+            licenseBase64
+        )
+        synchronized(this) {
+            if (cancelled) {
+                // cancel() was called while the checker was being built
+                destroy(checker)
+                return
+            }
+            libraryLVLChecker = checker
+        }
+        checker.checkAccess(object : LibraryCheckerCallback {
+            override fun allow(reason: Int) = callback.onResult(PiracyCheckResult.passed())
+
+            override fun dontAllow(reason: Int) =
+                callback.onResult(PiracyCheckResult.failed(PiracyCheckerError.NOT_LICENSED))
+
+            override fun applicationError(errorCode: Int) = callback.onResult(
+                PiracyCheckResult.error(PiracyCheckerError.getCheckerErrorFromCode(errorCode))
+            )
+        })
+    }
+
+    override fun cancel() {
+        val checker = synchronized(this) {
+            cancelled = true
+            libraryLVLChecker.also { libraryLVLChecker = null }
+        }
+        checker?.let { destroy(it) }
+    }
+
+    private fun destroy(checker: LibraryChecker) {
+        checker.finishAllChecks()
+        checker.onDestroy()
+    }
+
+    companion object {
+        /**
+         * Derives the obfuscator key and decodes the public key used by [execute].
+         */
+        fun prewarm(context: Context, licenseBase64: String?) {
+            val appContext = context.applicationContext ?: context
+            val deviceId =
+                Settings.Secure.getString(appContext.contentResolver, Settings.Secure.ANDROID_ID)
+            AESObfuscator.prewarm(
+                SaltUtils.getSalt(appContext), appContext.packageName, deviceId
+            )
+            LibraryChecker.prewarm(licenseBase64)
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.javiersantos.piracychecker.checks
+
+import android.content.Context
+import com.github.javiersantos.piracychecker.enums.CheckStatus
+import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
+import com.github.javiersantos.piracychecker.enums.PirateApp
+
+/**
+ * A check run by [com.github.javiersantos.piracychecker.PiracyChecker]. Checks are started
+ * from the cheapest to the most expensive one and may run at the same time, so they must not
+ * depend on each other.
+ */
+interface PiracyCheck {
+    /**
+     * Unique identifier of the check, reported in the verdict outcomes.
+     */
+    val id: String
+
+    /**
+     * Estimated cost of [execute] on the thread running it. Cheaper checks are started first.
+     * See [COST_TRIVIAL], [COST_LOW], [COST_MEDIUM] and [COST_HIGH].
+     */
+    val cost: Int
+
+    /**
+     * Identifies the configuration of the check, so instances of the same class configured
+     * differently never share their results. When it's null, each instance has its own result
+     * in memory, but the results saved for `enableOptimisticStart` and `withDeadline` are
+     * shared by every instance of the class.
+     */
+    val configurationKey: String?
+        get() = null
+
+    /**
+     * Runs the check. The result can be reported from any thread, before or after returning.
+     * It's called on a background thread when background verification is enabled.
+     */
+    fun execute(context: Context, callback: PiracyCheckCallback)
+
+    /**
+     * Called when the result is no longer needed. Release anything the check is holding.
+     */
+    fun cancel() {}
+
+    companion object {
+        const val COST_TRIVIAL = 1
+        const val COST_LOW = 10
+        const val COST_MEDIUM = 100
+        const val COST_HIGH = 1000
+
+        const val SIGNATURE = "signature"
+        const val INSTALLER = "installer"
+        const val BLOCKED = "blocked"
+        const val LICENSING = "licensing"
+        const val DEBUG = "debug"
+        const val EMULATOR = "emulator"
+        const val PIRATE_APP = "pirate_app"
+    }
+}
+
+fun interface PiracyCheckCallback {
+    fun onResult(result: PiracyCheckResult)
+}
+
+/**
+ * @param status
+ * [CheckStatus.PASSED], [CheckStatus.FAILED] or [CheckStatus.ERROR] if the check couldn't be
+ * completed
+ * @param error
+ * The error reported to the DoNotAllowCallback or OnErrorCallback
+ * @param apps
+ * Every [PirateApp] that made the check fail, the first one being reported as [app]
+ */
+class PiracyCheckResult private constructor(
+    val status: CheckStatus,
+    val error: PiracyCheckerError?,
+    val apps: List<PirateApp>
+) {
+    val passed: Boolean
+        get() = status == CheckStatus.PASSED
+
+    /**
+     * The [PirateApp] that made the check fail, if any
+     */
+    val app: PirateApp?
+        get() = apps.firstOrNull()
+
+    companion object {
+        private val PASSED = PiracyCheckResult(CheckStatus.PASSED, null, emptyList())
+
+        @JvmStatic
+        fun passed(): PiracyCheckResult = PASSED
+
+        @JvmStatic
+        @JvmOverloads
+        fun failed(error: PiracyCheckerError, app: PirateApp? = null): PiracyCheckResult =
+            PiracyCheckResult(CheckStatus.FAILED, error, listOfNotNull(app))
+
+        @JvmStatic
+        fun failed(error: PiracyCheckerError, apps: List<PirateApp>): PiracyCheckResult =
+            PiracyCheckResult(CheckStatus.FAILED, error, apps.toList())
+
+        @JvmStatic
+        fun error(error: PiracyCheckerError): PiracyCheckResult =
+            PiracyCheckResult(CheckStatus.ERROR, error, emptyList())
+    }
+}
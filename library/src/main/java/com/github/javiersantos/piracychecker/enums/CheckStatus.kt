@@ -0,0 +1,3 @@
+package com.github.javiersantos.piracychecker.enums
+
+enum class CheckStatus { PASSED, FAILED, ERROR, CANCELLED }
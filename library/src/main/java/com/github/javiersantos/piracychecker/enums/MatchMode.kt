@@ -0,0 +1,15 @@
+package com.github.javiersantos.piracychecker.enums
+
+/**
+ * How the package name of a [PirateApp] is compared with the installed packages.
+ */
+enum class MatchMode {
+    /** The installed package name contains the package name of the app */
+    CONTAINS,
+
+    /** The installed package name starts with the package name of the app */
+    PREFIX,
+
+    /** The installed package name is the package name of the app */
+    EXACT
+}
@@ -1,27 +1,89 @@
 package com.github.javiersantos.piracychecker.enums
 
-class PirateApp(name: String, pack: Array<String>, type: AppType = AppType.OTHER) {
+/**
+ * App looked for by the unauthorized apps check. Its package name is kept encoded, the same way
+ * as in a catalog file, and only decoded the first time it's needed.
+ */
+class PirateApp private constructor(
+    name: String,
+    private val encodedPackage: ByteArray,
+    type: AppType,
+    matchMode: MatchMode
+) {
     var name: String? = null
         private set
     var type: AppType? = null
         private set
-    private var pack: Array<String>? = null
+    var matchMode: MatchMode = MatchMode.CONTAINS
+        private set
+
+    @Volatile
+    private var decodedPackage: String? = null
 
     init {
         this.name = name
-        this.pack = pack.clone()
         this.type = type
+        this.matchMode = matchMode
     }
 
+    /**
+     * @param pack
+     * Package name split in single characters, so it can't be found as a string in your app
+     */
+    @JvmOverloads
+    constructor(
+        name: String,
+        pack: Array<String>,
+        type: AppType = AppType.OTHER,
+        matchMode: MatchMode = MatchMode.CONTAINS
+    ) : this(name, encode(pack.joinToString("")), type, matchMode)
+
+    @JvmOverloads
+    constructor(
+        name: String,
+        packageName: String,
+        type: AppType = AppType.OTHER,
+        matchMode: MatchMode = MatchMode.CONTAINS
+    ) : this(name, encode(packageName), type, matchMode)
+
     @Deprecated("Deprecated in favor of packageName", ReplaceWith("packageName"))
     val `package`: String
         get() = packageName
 
+    // Decoded at most a few times if threads race, always to the same value
     val packageName: String
-        get() {
-            val sb = StringBuilder()
-            pack?.forEach { sb.append(it) }
-            return sb.toString()
-        }
+        get() = decodedPackage
+            ?: String(transform(encodedPackage), Charsets.UTF_8).also { decodedPackage = it }
+
+    /**
+     * The package name as written in a catalog file. Not a copy, it must not be modified.
+     */
+    internal val encodedPackageName: ByteArray
+        get() = encodedPackage
 
+    companion object {
+        private val KEY = byteArrayOf(0x5a, 0x13, 0x77, 0x2c, 0x41, 0x6e, 0x08, 0x39)
+
+        /**
+         * XORs [bytes] with a key stream. Applying it twice gives back the original bytes.
+         */
+        internal fun transform(bytes: ByteArray): ByteArray =
+            ByteArray(bytes.size) {
+                (bytes[it].toInt() xor KEY[it % KEY.size].toInt() xor it).toByte()
+            }
+
+        private fun encode(packageName: String): ByteArray =
+            transform(packageName.toByteArray(Charsets.UTF_8))
+
+        /**
+         * Creates the app from a package name already encoded with [transform], which is kept
+         * without being copied.
+         */
+        internal fun fromEncoded(
+            name: String,
+            encodedPackage: ByteArray,
+            type: AppType,
+            matchMode: MatchMode
+        ): PirateApp = PirateApp(name, encodedPackage, type, matchMode)
+    }
 }
\ No newline at end of file
@@ -0,0 +1,3 @@
+package com.github.javiersantos.piracychecker.enums
+
+enum class VerdictStatus { ALLOWED, NOT_ALLOWED, ERROR }
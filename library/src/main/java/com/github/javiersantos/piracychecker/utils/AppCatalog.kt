@@ -0,0 +1,151 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.Context
+import android.util.Log
+import com.github.javiersantos.piracychecker.VerdictCache
+import com.github.javiersantos.piracychecker.catalog.CatalogReader
+import com.github.javiersantos.piracychecker.catalog.CatalogSource
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Read-only list of the apps looked for by the unauthorized apps check: the built-in apps, or the
+ * ones of the catalog set with `withCatalog`, created once per process and never copied,
+ * followed by the extra apps that are not in them.
+ */
+internal class AppCatalog private constructor(
+    private val builtIn: BuiltIn,
+    private val extras: List<PirateApp>
+) : AbstractList<PirateApp>() {
+    override val size: Int
+        get() = builtIn.apps.size + extras.size
+
+    override fun get(index: Int): PirateApp =
+        if (index < builtIn.apps.size) builtIn.apps[index]
+        else extras[index - builtIn.apps.size]
+
+    /**
+     * Returns the indexes of the apps of the given [types], in catalog order.
+     */
+    fun indexesOf(types: Set<AppType>): IntArray {
+        val indexes = ArrayList<Int>()
+        // The built-in indexes of each type are already sorted, so they are merged by sorting
+        types.forEach { type -> builtIn.indexesByType[type]?.let { indexes.addAll(it.asList()) } }
+        indexes.sort()
+        extras.forEachIndexed { index, app ->
+            if ((app.type ?: AppType.OTHER) in types) indexes.add(builtIn.apps.size + index)
+        }
+        return indexes.toIntArray()
+    }
+
+    /**
+     * Built-in apps and their indexes partitioned by [AppType].
+     */
+    private class BuiltIn(apps: List<PirateApp>) {
+        val apps: List<PirateApp> = Collections.unmodifiableList(ArrayList(apps))
+        val packageNames: Set<String> = apps.mapTo(HashSet()) { it.packageName.intern() }
+        val indexesByType: Map<AppType, IntArray> = AppType.values().associateWith { type ->
+            apps.indices.filter { (apps[it].type ?: AppType.OTHER) == type }.toIntArray()
+        }
+    }
+
+    companion object {
+        private const val TAG = "PiracyChecker"
+
+        private val defaultBuiltIn by lazy { BuiltIn(builtInApps()) }
+
+        private class Loaded(val key: String, val builtIn: BuiltIn)
+
+        // Last apps read from each source, by source id. Read and compiled without any lock, then
+        // published in a single swap, so checkers of other sources never wait for them
+        private val loaded = ConcurrentHashMap<String, Loaded>()
+        private val reloading: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+        @Volatile
+        private var last: Pair<List<PirateApp>, AppCatalog>? = null
+
+        /**
+         * Returns the catalog made of the apps read from [source], or the built-in ones if it's
+         * null, with [extraApps] added. The last catalog is reused if nothing changed.
+         */
+        fun of(context: Context, source: CatalogSource?, extraApps: List<PirateApp>): AppCatalog {
+            val builtIn = builtIn(context, source)
+            last?.let { (lastExtraApps, catalog) ->
+                if (catalog.builtIn === builtIn && lastExtraApps.size == extraApps.size &&
+                    lastExtraApps.indices.all { lastExtraApps[it] === extraApps[it] }
+                ) return catalog
+            }
+            return create(builtIn, extraApps)
+        }
+
+        /**
+         * Reads the apps ahead of the first check.
+         */
+        fun prewarm(context: Context, source: CatalogSource?) {
+            builtIn(context, source)
+        }
+
+        /**
+         * Reads the apps of [source] again in background, if they have already been read. The
+         * previous apps and their matcher are used until the new ones are ready.
+         */
+        fun refresh(context: Context, source: CatalogSource) {
+            if (source.id !in loaded || !reloading.add(source.id)) return
+            val appContext = context.applicationContext ?: context
+            ExecutorUtils.background.execute {
+                try {
+                    // Grown past the size kept in memory, the catalog is now filtered instead
+                    if (source.isFiltered(appContext)) {
+                        loaded.remove(source.id)
+                        VerdictCache.invalidate()
+                        return@execute
+                    }
+                    val key = source.key
+                    val builtIn = read(appContext, source, key)
+                    if (builtIn != null) {
+                        // Compiled before the swap, so no scan has to wait for it
+                        val catalog = create(builtIn, last?.first.orEmpty())
+                        PackageMatcher.of(catalog)
+                    }
+                    val current = loaded[source.id] ?: return@execute
+                    // A catalog that can't be read isn't read again until it changes
+                    loaded.replace(source.id, current, Loaded(key, builtIn ?: current.builtIn))
+                    // Verdicts reached with the previous apps are outdated
+                    if (builtIn != null) VerdictCache.invalidate()
+                } finally {
+                    reloading.remove(source.id)
+                }
+            }
+        }
+
+        private fun create(builtIn: BuiltIn, extraApps: List<PirateApp>): AppCatalog {
+            val extras = extraApps
+                .filter { it.packageName !in builtIn.packageNames }
+                .distinctBy { it.packageName }
+            return AppCatalog(builtIn, extras).also { last = ArrayList(extraApps) to it }
+        }
+
+        private fun builtIn(context: Context, source: CatalogSource?): BuiltIn {
+            source ?: return defaultBuiltIn
+            val key = source.key
+            val current = loaded[source.id] ?: run {
+                // Checkers reading the same source at once keep the apps published first
+                val read = Loaded(key, read(context, source, key) ?: defaultBuiltIn)
+                loaded.putIfAbsent(source.id, read) ?: read
+            }
+            if (current.key != key) refresh(context, source)
+            return current.builtIn
+        }
+
+        private fun read(context: Context, source: CatalogSource, key: String): BuiltIn? =
+            try {
+                BuiltIn(CatalogReader(source.open(context)).use { it.asSequence().toList() })
+            } catch (e: Exception) {
+                // The built-in apps are better than nothing
+                Log.e(TAG, "Could not read the catalog $key", e)
+                null
+            }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.javiersantos.piracychecker.utils
+
+import kotlin.math.ceil
+import kotlin.math.ln
+import kotlin.math.roundToInt
+
+/**
+ * Set of strings that can answer "maybe present" for a string that was never added, with a
+ * probability close to [falsePositiveRate], but never answers "absent" for one that was.
+ */
+internal class BloomFilter(expectedSize: Int, falsePositiveRate: Double) {
+    private val bitCount: Int
+    private val hashCount: Int
+    private val bits: LongArray
+
+    init {
+        require(falsePositiveRate > 0 && falsePositiveRate < 1) {
+            "The false positive rate must be between 0 and 1"
+        }
+        val n = expectedSize.coerceAtLeast(1)
+        val m = ceil(-n * ln(falsePositiveRate) / (LN_2 * LN_2)).toLong()
+        bitCount = m.coerceIn(64L, Int.MAX_VALUE.toLong()).toInt()
+        hashCount = (bitCount.toDouble() / n * LN_2).roundToInt().coerceIn(1, 16)
+        bits = LongArray((bitCount + 63) / 64)
+    }
+
+    fun add(value: CharSequence) =
+        forEachIndex(value, value.length) { bits[it ushr 6] = bits[it ushr 6] or (1L shl it) }
+
+    /**
+     * Whether the first [length] characters of [value] may have been added, without copying them.
+     */
+    fun mightContain(value: CharSequence, length: Int = value.length): Boolean {
+        forEachIndex(value, length) { if (bits[it ushr 6] and (1L shl it) == 0L) return false }
+        return true
+    }
+
+    // Double hashing of a 64-bit FNV-1a hash: index i is h1 + i * h2
+    private inline fun forEachIndex(value: CharSequence, length: Int, action: (Int) -> Unit) {
+        var hash = FNV_OFFSET
+        for (i in 0 until length) {
+            hash = (hash xor value[i].code.toLong()) * FNV_PRIME
+        }
+        val h1 = hash.toInt()
+        val h2 = (hash ushr 32).toInt()
+        for (i in 0 until hashCount) {
+            val combined = h1 + i * h2
+            action((combined and Int.MAX_VALUE) % bitCount)
+        }
+    }
+
+    private companion object {
+        val LN_2 = ln(2.0)
+        const val FNV_OFFSET = -0x340d631b7bdddcdbL
+        const val FNV_PRIME = 0x100000001b3L
+    }
+}
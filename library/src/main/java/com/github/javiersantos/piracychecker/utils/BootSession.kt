@@ -0,0 +1,82 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.Context
+import android.os.Build
+import android.os.SystemClock
+import android.provider.Settings
+import com.github.javiersantos.piracychecker.VerdictStore
+import java.io.File
+
+/**
+ * Values that can't change until the device reboots, cached in memory and in a file so they are
+ * computed once per boot instead of once per process. The file holds the boot id, one line per
+ * value and the signature of those lines, so edited values can't hide an emulator.
+ */
+internal object BootSession {
+    private const val FILE_PREFIX = "piracychecker_boot_"
+
+    // Boot times computed from the clocks differ by a few milliseconds
+    private const val BOOT_TIME_PRECISION_MILLIS = 10_000L
+
+    private val cache = HashMap<String, Map<String, String>>()
+
+    /**
+     * Identifies the current boot: the boot count, or the time of the boot on Android 6.
+     */
+    fun id(context: Context): String {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try {
+                return "count:" +
+                        Settings.Global.getInt(context.contentResolver, Settings.Global.BOOT_COUNT)
+            } catch (_: Exception) {
+            }
+        }
+        val bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime()
+        return "time:${bootTime / BOOT_TIME_PRECISION_MILLIS}"
+    }
+
+    /**
+     * Returns the values saved as [name] during this boot, or null if there are none.
+     */
+    @Synchronized
+    fun load(context: Context, name: String): Map<String, String>? {
+        cache[name]?.let { return it }
+        return try {
+            val lines = File(context.cacheDir, FILE_PREFIX + name).readLines()
+            val signature = lines.lastOrNull() ?: return null
+            val content = lines.dropLast(1)
+            if (content.firstOrNull() != id(context)) return null
+            if (!VerdictStore.isSigned(context, signed(name, content), signature)) return null
+            content.drop(1).associate { it.substringBefore('\t') to it.substringAfter('\t', "") }
+                .also { cache[name] = it }
+        } catch (_: Exception) {
+            null
+        }
+    }
+
+    @Synchronized
+    fun save(context: Context, name: String, values: Map<String, String>) {
+        cache[name] = values
+        try {
+            val file = File(context.cacheDir, FILE_PREFIX + name)
+            val temp = File(context.cacheDir, "$FILE_PREFIX$name.tmp")
+            // One line per value, so they can't contain line breaks or tabs
+            val lines = listOf(id(context)) + values.map { (key, value) ->
+                "$key\t${value.replace(Regex("[\t\r\n]"), " ")}"
+            }
+            temp.bufferedWriter().use { writer ->
+                lines.forEach {
+                    writer.write(it)
+                    writer.newLine()
+                }
+                writer.write(VerdictStore.sign(context, signed(name, lines)))
+            }
+            if (!temp.renameTo(file)) temp.delete()
+        } catch (_: Exception) {
+        }
+    }
+
+    // The name is signed too, so the values of one file can't be copied to another
+    private fun signed(name: String, lines: List<String>): String =
+        (listOf(name) + lines).joinToString("\n")
+}
@@ -0,0 +1,158 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.Signature
+import android.os.Build
+import com.github.javiersantos.piracychecker.VerdictStore
+import java.io.File
+import java.security.MessageDigest
+import java.util.Locale
+import java.util.concurrent.Callable
+
+/**
+ * Finds the installed packages signed with a blocked certificate. The SHA-256 digests of the
+ * certificates of every package are cached, in memory and in a file signed like the
+ * [VerdictStore], along with the time the package was last updated, so only new or updated
+ * packages are read and hashed again.
+ */
+internal object CertificateScanner {
+    private const val CACHE_FILE_NAME = "piracychecker_certificates"
+    private const val LOOKUP_BATCH_SIZE = 32
+
+    private class Entry(val lastUpdateTime: Long, val digests: Set<String>)
+
+    private val cache = HashMap<String, Entry>()
+    private var cacheLoaded = false
+
+    /**
+     * Returns the digest in the format used by the cache: lowercase hex without separators.
+     */
+    fun normalize(digest: String): String =
+        digest.replace(":", "").replace(" ", "").lowercase(Locale.ROOT)
+
+    /**
+     * Returns the packages, other than the app itself, signed with any of the [blocked]
+     * certificates.
+     */
+    @SuppressLint("QueryPermissionsNeeded")
+    fun findSignedWith(context: Context, blocked: Set<String>): List<PackageInfo> {
+        if (blocked.isEmpty()) return emptyList()
+        val pm = context.packageManager
+        // Without flags, the list has little more than the names and update times
+        val installed = pm.getInstalledPackages(0)
+
+        val stale = synchronized(this) {
+            if (!cacheLoaded) {
+                load(context)
+                cacheLoaded = true
+            }
+            installed.filter { cache[it.packageName]?.lastUpdateTime != it.lastUpdateTime }
+        }
+        if (stale.isNotEmpty()) {
+            // Signing certificates are read a few packages at a time, in parallel. Listing every
+            // package with its certificates at once can go over the size of a transaction
+            val batches = stale.chunked(LOOKUP_BATCH_SIZE)
+            val lookups = try {
+                ExecutorUtils.io.invokeAll(batches.map { Callable { pm.readDigests(it) } })
+            } catch (_: Exception) {
+                null
+            }
+            val entries = batches.flatMapIndexed { index, batch ->
+                try {
+                    lookups?.get(index)?.get()
+                } catch (_: Exception) {
+                    null
+                } ?: pm.readDigests(batch) // Read here when the batch failed on the pool
+            }
+            synchronized(this) {
+                entries.forEach { (packageName, entry) -> cache[packageName] = entry }
+                val names = installed.mapTo(HashSet()) { it.packageName }
+                cache.keys.retainAll(names)
+                save(context)
+            }
+        }
+
+        return synchronized(this) {
+            installed.filter { info ->
+                info.packageName != context.packageName &&
+                        cache[info.packageName]?.digests?.any { it in blocked } == true
+            }
+        }
+    }
+
+    @Suppress("DEPRECATION")
+    private val signatureFlags: Int
+        get() = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            PackageManager.GET_SIGNING_CERTIFICATES
+        else PackageManager.GET_SIGNATURES
+
+    private fun PackageManager.readDigests(info: PackageInfo): Pair<String, Entry>? =
+        try {
+            getPackageInfo(info.packageName, signatureFlags).toEntry()
+        } catch (e: Exception) {
+            null
+        }
+
+    private fun PackageManager.readDigests(batch: List<PackageInfo>): List<Pair<String, Entry>> =
+        batch.mapNotNull { readDigests(it) }
+
+    @Suppress("DEPRECATION")
+    private fun PackageInfo.toEntry(): Pair<String, Entry>? {
+        val certificates: Array<Signature>? =
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                val signingInfo = this.signingInfo ?: return null
+                if (signingInfo.hasMultipleSigners()) signingInfo.apkContentsSigners
+                else signingInfo.signingCertificateHistory
+            } else {
+                this.signatures
+            }
+        val digests = (certificates ?: return null).mapTo(HashSet()) { signature ->
+            MessageDigest.getInstance("SHA-256").digest(signature.toByteArray())
+                .joinToString("") { "%02x".format(it) }
+        }
+        return packageName to Entry(lastUpdateTime, digests)
+    }
+
+    /**
+     * One line per package: name, last update time and digests separated by tabs, followed by
+     * the signature of the lines. Signed, so an edited digest can't hide an app signed with a
+     * blocked certificate.
+     */
+    private fun load(context: Context) {
+        try {
+            val lines = File(context.cacheDir, CACHE_FILE_NAME).readLines()
+            val signature = lines.lastOrNull() ?: return
+            val content = lines.dropLast(1)
+            if (!VerdictStore.isSigned(context, content.joinToString("\n"), signature)) return
+            content.forEach { line ->
+                val fields = line.split('\t')
+                if (fields.size < 2) return@forEach
+                val lastUpdateTime = fields[1].toLongOrNull() ?: return@forEach
+                cache[fields[0]] = Entry(lastUpdateTime, fields.drop(2).toSet())
+            }
+        } catch (_: Exception) {
+        }
+    }
+
+    private fun save(context: Context) {
+        try {
+            val file = File(context.cacheDir, CACHE_FILE_NAME)
+            val temp = File(context.cacheDir, "$CACHE_FILE_NAME.tmp")
+            val lines = cache.map { (packageName, entry) ->
+                (listOf(packageName, "${entry.lastUpdateTime}") + entry.digests).joinToString("\t")
+            }
+            temp.bufferedWriter().use { writer ->
+                lines.forEach {
+                    writer.write(it)
+                    writer.newLine()
+                }
+                writer.write(VerdictStore.sign(context, lines.joinToString("\n")))
+            }
+            if (!temp.renameTo(file)) temp.delete()
+        } catch (_: Exception) {
+        }
+    }
+}
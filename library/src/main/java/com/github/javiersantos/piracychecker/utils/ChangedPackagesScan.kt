@@ -0,0 +1,96 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.Context
+import android.content.pm.PackageManager
+import android.os.Build
+import android.provider.Settings
+import com.github.javiersantos.piracychecker.VerdictStore
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the installed packages matched by the last complete scan, along with the sequence
+ * number of [PackageManager.getChangedPackages], so the next scan only looks at the packages
+ * added, removed or updated since, even in another process. Sequence numbers start again when
+ * the device reboots, so the state is only used with the same boot count.
+ */
+internal object ChangedPackagesScan {
+    /**
+     * Position in the changes of the packages of the device.
+     */
+    class Cursor(val bootCount: Int, val sequenceNumber: Int)
+
+    class State(val key: String, val cursor: Cursor, val matched: Set<String>)
+
+    // Last state of each key, the apps looked for by different checkers are scanned apart
+    private val states = ConcurrentHashMap<String, State>()
+
+    // Last position known in this process, so the changes are listed from there instead of
+    // from the boot, which would send every package changed since
+    @Volatile
+    private var position: Cursor? = null
+
+    /**
+     * Returns the current position in the changes, to save along with a full scan. It's read
+     * before the scan starts, so the packages changed during it are looked at again next time.
+     * Null if the changes can't be followed on this device.
+     */
+    fun cursor(context: Context): Cursor? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null
+        return try {
+            val bootCount =
+                Settings.Global.getInt(context.contentResolver, Settings.Global.BOOT_COUNT)
+            val known = (position ?: states.values.firstOrNull()?.cursor)
+                ?.takeIf { it.bootCount == bootCount }
+            // Null without changes since the known position, or since the boot
+            val sequenceNumber = context.packageManager
+                .getChangedPackages(known?.sequenceNumber ?: 0)?.sequenceNumber
+                ?: known?.sequenceNumber ?: 0
+            Cursor(bootCount, sequenceNumber).also { position = it }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    /**
+     * Returns the installed packages matched by the last scan with the same [key], updated with
+     * the packages changed since, or null if a full scan is needed.
+     *
+     * @param matches
+     * Whether an installed package name matches any of the apps looked for
+     */
+    fun matchedSince(context: Context, key: String, matches: (String) -> Boolean): Set<String>? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null
+        val state = states[key]
+            ?: VerdictStore.loadScanState(context, key)?.also { states[key] = it }
+            ?: return null
+        return try {
+            val bootCount =
+                Settings.Global.getInt(context.contentResolver, Settings.Global.BOOT_COUNT)
+            if (bootCount != state.cursor.bootCount) return null
+            val pm = context.packageManager
+            val changes = pm.getChangedPackages(state.cursor.sequenceNumber)
+            if (changes == null) {
+                position = state.cursor
+                return state.matched
+            }
+            val matched = HashSet(state.matched)
+            for (packageName in changes.packageNames) {
+                matched.remove(packageName)
+                if (pm.isInstalledOrLaunchable(packageName) && matches(packageName))
+                    matched.add(packageName)
+            }
+            val cursor = Cursor(bootCount, changes.sequenceNumber)
+            position = cursor
+            save(context, key, cursor, matched)
+            matched
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    fun save(context: Context, key: String, cursor: Cursor, matched: Set<String>) {
+        val state = State(key, cursor, matched)
+        states[key] = state
+        VerdictStore.saveScanState(context, state)
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.os.Build
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.util.Arrays
+
+/**
+ * Sorted names of the entries of a directory, listed once, so the entries with a given name or
+ * prefix are found with a binary search instead of listing the directory again.
+ */
+internal class DirectoryIndex private constructor(private val names: Array<String>) {
+    /**
+     * Whether the directory could be listed. When it couldn't, the index is empty and the
+     * entries have to be checked one by one.
+     */
+    val isListed: Boolean
+        get() = names !== UNLISTED
+
+    operator fun contains(name: String): Boolean = Arrays.binarySearch(names, name) >= 0
+
+    fun hasPrefix(prefix: String): Boolean {
+        val index = Arrays.binarySearch(names, prefix).let { if (it < 0) -it - 1 else it }
+        return index < names.size && names[index].startsWith(prefix)
+    }
+
+    companion object {
+        private val UNLISTED = arrayOf<String>()
+
+        fun of(path: String): DirectoryIndex {
+            val names = try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    // Streams the names without creating a File for each entry
+                    Files.newDirectoryStream(Paths.get(path)).use { stream ->
+                        stream.map { it.fileName.toString() }.toTypedArray()
+                    }
+                } else {
+                    File(path).list()
+                }
+            } catch (e: Exception) {
+                null
+            }
+            return DirectoryIndex(names?.apply { sort() } ?: UNLISTED)
+        }
+    }
+}
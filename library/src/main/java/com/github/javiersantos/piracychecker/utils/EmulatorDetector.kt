@@ -0,0 +1,186 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.Context
+import android.os.Build
+import android.os.Environment
+import java.io.File
+import java.util.Locale
+
+/**
+ * Scores how likely the device is an emulator from a table of rules. The `Build` fields can't
+ * change while the process runs, so their score is computed once.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * Copyright (C) 2013, Vladislav Gingo Skoumal (http://www.skoumal.net)
+ */
+internal object EmulatorDetector {
+    const val DEFAULT_THRESHOLD = 3
+
+    private const val DEEP_CHECK_WEIGHT = 10
+
+    /**
+     * Value a rule looks at. Only the `Build` fields are read without the deep check, the others
+     * come from [GlProbe] and [EnvironmentProbe].
+     */
+    enum class Field {
+        PRODUCT, MANUFACTURER, BRAND, DEVICE, MODEL, HARDWARE, FINGERPRINT,
+        GL_RENDERER, GL_VENDOR,
+        CPU_INFO, TTY_DRIVERS, DMI_VENDOR, DMI_PRODUCT,
+        KERNEL_QEMU, BOOT_QEMU, INIT_HARDWARE,
+
+        /** Paths of the emulator device nodes found, separated by spaces */
+        DEVICE_NODES
+    }
+
+    enum class Operator { EQUALS, CONTAINS }
+
+    /**
+     * Adds [weight] to the score when [field] matches [pattern], ignoring case. A field only adds
+     * the weight of its heaviest matching rule, however many of them match.
+     */
+    class Rule(val field: Field, val operator: Operator, pattern: String, val weight: Int = 1) {
+        val pattern: String = pattern.lowercase(Locale.ROOT)
+
+        // Only called with values already in lowercase
+        fun matches(value: String): Boolean = when (operator) {
+            Operator.EQUALS -> value == pattern
+            Operator.CONTAINS -> value.contains(pattern)
+        }
+    }
+
+    private val RULES = listOf(
+        Rule(Field.PRODUCT, Operator.CONTAINS, "sdk"),
+        Rule(Field.PRODUCT, Operator.CONTAINS, "Andy"),
+        Rule(Field.PRODUCT, Operator.CONTAINS, "ttVM_Hdragon"),
+        Rule(Field.PRODUCT, Operator.CONTAINS, "Droid4X"),
+        Rule(Field.PRODUCT, Operator.CONTAINS, "nox"),
+        Rule(Field.PRODUCT, Operator.CONTAINS, "vbox86p"),
+        Rule(Field.MANUFACTURER, Operator.EQUALS, "unknown"),
+        Rule(Field.MANUFACTURER, Operator.EQUALS, "Genymotion"),
+        Rule(Field.MANUFACTURER, Operator.CONTAINS, "Andy"),
+        Rule(Field.MANUFACTURER, Operator.CONTAINS, "MIT"),
+        Rule(Field.MANUFACTURER, Operator.CONTAINS, "nox"),
+        Rule(Field.MANUFACTURER, Operator.CONTAINS, "TiantianVM"),
+        Rule(Field.BRAND, Operator.EQUALS, "generic"),
+        Rule(Field.BRAND, Operator.EQUALS, "generic_x86"),
+        Rule(Field.BRAND, Operator.EQUALS, "TTVM"),
+        Rule(Field.BRAND, Operator.CONTAINS, "Andy"),
+        Rule(Field.DEVICE, Operator.CONTAINS, "generic"),
+        Rule(Field.DEVICE, Operator.CONTAINS, "Andy"),
+        Rule(Field.DEVICE, Operator.CONTAINS, "ttVM_Hdragon"),
+        Rule(Field.DEVICE, Operator.CONTAINS, "Droid4X"),
+        Rule(Field.DEVICE, Operator.CONTAINS, "nox"),
+        Rule(Field.DEVICE, Operator.CONTAINS, "vbox86p"),
+        Rule(Field.MODEL, Operator.EQUALS, "sdk"),
+        Rule(Field.MODEL, Operator.EQUALS, "google_sdk"),
+        Rule(Field.MODEL, Operator.CONTAINS, "Droid4X"),
+        Rule(Field.MODEL, Operator.CONTAINS, "TiantianVM"),
+        Rule(Field.MODEL, Operator.CONTAINS, "Andy"),
+        Rule(Field.MODEL, Operator.EQUALS, "Android SDK built for x86_64"),
+        Rule(Field.MODEL, Operator.EQUALS, "Android SDK built for x86"),
+        Rule(Field.HARDWARE, Operator.EQUALS, "goldfish"),
+        Rule(Field.HARDWARE, Operator.EQUALS, "vbox86"),
+        Rule(Field.HARDWARE, Operator.CONTAINS, "nox"),
+        Rule(Field.HARDWARE, Operator.CONTAINS, "ttVM_x86"),
+        Rule(Field.FINGERPRINT, Operator.CONTAINS, "generic"),
+        Rule(Field.FINGERPRINT, Operator.CONTAINS, "Andy"),
+        Rule(Field.FINGERPRINT, Operator.CONTAINS, "ttVM_Hdragon"),
+        Rule(Field.FINGERPRINT, Operator.CONTAINS, "vbox86p"),
+        Rule(Field.GL_RENDERER, Operator.CONTAINS, "Bluestacks", DEEP_CHECK_WEIGHT),
+        Rule(Field.GL_RENDERER, Operator.CONTAINS, "Translator", DEEP_CHECK_WEIGHT),
+        Rule(Field.GL_VENDOR, Operator.CONTAINS, "Bluestacks", DEEP_CHECK_WEIGHT),
+        Rule(Field.CPU_INFO, Operator.CONTAINS, "Goldfish", DEEP_CHECK_WEIGHT),
+        // Also reported by some real devices, so it only adds as much as a Build field
+        Rule(Field.CPU_INFO, Operator.CONTAINS, "hypervisor"),
+        Rule(Field.TTY_DRIVERS, Operator.CONTAINS, "goldfish", DEEP_CHECK_WEIGHT),
+        Rule(Field.DMI_VENDOR, Operator.CONTAINS, "innotek", DEEP_CHECK_WEIGHT),
+        Rule(Field.DMI_VENDOR, Operator.CONTAINS, "VMware", DEEP_CHECK_WEIGHT),
+        Rule(Field.DMI_VENDOR, Operator.CONTAINS, "QEMU", DEEP_CHECK_WEIGHT),
+        Rule(Field.DMI_PRODUCT, Operator.CONTAINS, "VirtualBox", DEEP_CHECK_WEIGHT),
+        Rule(Field.DMI_PRODUCT, Operator.CONTAINS, "VMware", DEEP_CHECK_WEIGHT),
+        Rule(Field.KERNEL_QEMU, Operator.EQUALS, "1", DEEP_CHECK_WEIGHT),
+        Rule(Field.BOOT_QEMU, Operator.EQUALS, "1", DEEP_CHECK_WEIGHT),
+        Rule(Field.INIT_HARDWARE, Operator.EQUALS, "goldfish", DEEP_CHECK_WEIGHT),
+        Rule(Field.INIT_HARDWARE, Operator.EQUALS, "ranchu", DEEP_CHECK_WEIGHT),
+        Rule(Field.INIT_HARDWARE, Operator.EQUALS, "vbox86", DEEP_CHECK_WEIGHT),
+        Rule(Field.DEVICE_NODES, Operator.CONTAINS, "qemu", DEEP_CHECK_WEIGHT),
+        Rule(Field.DEVICE_NODES, Operator.CONTAINS, "goldfish", DEEP_CHECK_WEIGHT),
+        Rule(Field.DEVICE_NODES, Operator.CONTAINS, "vbox", DEEP_CHECK_WEIGHT)
+    )
+
+    // Rules by field, so each field is read and lowercased once
+    private val rulesByField: Map<Field, List<Rule>> = RULES.groupBy { it.field }
+
+    private val buildScore: Int by lazy {
+        score(
+            mapOf(
+                Field.PRODUCT to { Build.PRODUCT },
+                Field.MANUFACTURER to { Build.MANUFACTURER },
+                Field.BRAND to { Build.BRAND },
+                Field.DEVICE to { Build.DEVICE },
+                Field.MODEL to { Build.MODEL },
+                Field.HARDWARE to { Build.HARDWARE },
+                Field.FINGERPRINT to { Build.FINGERPRINT }
+            )
+        )
+    }
+
+    /**
+     * Whether the score of the device is above [threshold]. The deep check adds the GL renderer
+     * and vendor, the kernel files, init properties and device nodes of known emulators and the
+     * shared folder of BlueStacks, most of them enough to go above the default threshold.
+     */
+    fun isEmulator(
+        context: Context,
+        deepCheck: Boolean,
+        threshold: Int = DEFAULT_THRESHOLD
+    ): Boolean {
+        var score = buildScore
+        if (score > threshold) return true
+        if (deepCheck) score += deepScore(context)
+        return score > threshold
+    }
+
+    private fun score(values: Map<Field, () -> String?>): Int =
+        values.entries.sumOf { (field, read) ->
+            val rules = rulesByField[field] ?: return@sumOf 0
+            val value = try {
+                read()?.lowercase(Locale.ROOT)
+            } catch (e: Exception) {
+                null
+            } ?: return@sumOf 0
+            rules.filter { it.matches(value) }.maxOfOrNull { it.weight } ?: 0
+        }
+
+    private fun deepScore(context: Context): Int {
+        // Read once for both fields, on its own thread and at most once per boot
+        val gl by lazy { GlProbe.read(context) }
+        var score = score(
+            mapOf(Field.GL_RENDERER to { gl.first }, Field.GL_VENDOR to { gl.second })
+        )
+        score += score(EnvironmentProbe.read(context).mapValues { (_, value) -> { value } })
+
+        try {
+            val sharedFolder = File(
+                "${Environment.getExternalStorageDirectory()}${File.separatorChar}windows" +
+                        "${File.separatorChar}BstSharedFolder"
+            )
+            if (sharedFolder.exists())
+                score += DEEP_CHECK_WEIGHT
+        } catch (_: Exception) {
+        }
+        return score
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.annotation.SuppressLint
+import android.content.Context
+import com.github.javiersantos.piracychecker.utils.EmulatorDetector.Field
+import java.io.File
+import java.io.FileInputStream
+import java.lang.reflect.Method
+import java.nio.ByteBuffer
+
+/**
+ * Reads what the kernel, init and the device nodes tell about the device, which is harder to
+ * spoof than the `Build` fields. Everything is read in a single pass through one buffer, at most
+ * [MAX_FILE_BYTES] of each file, and cached for the boot in a signed [BootSession] file.
+ */
+internal object EnvironmentProbe {
+    private const val CACHE_NAME = "environment"
+    private const val MAX_FILE_BYTES = 16 * 1024
+
+    @Volatile
+    private var values: Map<Field, String>? = null
+
+    private val FILES = mapOf(
+        Field.CPU_INFO to "/proc/cpuinfo",
+        Field.TTY_DRIVERS to "/proc/tty/drivers",
+        Field.DMI_VENDOR to "/sys/class/dmi/id/sys_vendor",
+        Field.DMI_PRODUCT to "/sys/class/dmi/id/product_name"
+    )
+
+    private val PROPERTIES = mapOf(
+        Field.KERNEL_QEMU to "ro.kernel.qemu",
+        Field.BOOT_QEMU to "ro.boot.qemu",
+        Field.INIT_HARDWARE to "ro.hardware"
+    )
+
+    private val DEVICE_NODES = listOf(
+        "/dev/qemu_pipe", "/dev/goldfish_pipe", "/dev/socket/qemud", "/dev/vboxguest",
+        "/dev/vboxuser", "/sys/qemu_trace", "/system/bin/qemu-props"
+    )
+
+    /**
+     * Returns the value of each field, missing if it couldn't be read.
+     */
+    fun read(context: Context): Map<Field, String> {
+        values?.let { return it }
+        val cached = BootSession.load(context, CACHE_NAME)?.entries?.mapNotNull { (name, value) ->
+            Field.values().firstOrNull { it.name == name }?.let { it to value }
+        }?.toMap()
+        return (cached ?: collect().also { collected ->
+            BootSession.save(context, CACHE_NAME, collected.mapKeys { it.key.name })
+        }).also { values = it }
+    }
+
+    private fun collect(): Map<Field, String> {
+        val values = HashMap<Field, String>()
+        // Allocated once for every file, the largest file read is the size of the buffer
+        val buffer = ByteBuffer.allocate(MAX_FILE_BYTES)
+        FILES.forEach { (field, path) -> readFile(path, buffer)?.let { values[field] = it } }
+        PROPERTIES.forEach { (field, name) -> property(name)?.let { values[field] = it } }
+        values[Field.DEVICE_NODES] = DEVICE_NODES.filter {
+            try {
+                File(it).exists()
+            } catch (_: Exception) {
+                false
+            }
+        }.joinToString(" ")
+        return values
+    }
+
+    private fun readFile(path: String, buffer: ByteBuffer): String? =
+        try {
+            buffer.clear()
+            // Files in /proc and /sys report a size of 0, they are read until the end or the cap
+            FileInputStream(path).channel.use { channel ->
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                }
+            }
+            buffer.flip()
+            Charsets.ISO_8859_1.decode(buffer).toString()
+        } catch (_: Exception) {
+            null
+        }
+
+    private val getProperty: Method? by lazy {
+        try {
+            @SuppressLint("PrivateApi")
+            val systemProperties = Class.forName("android.os.SystemProperties")
+            systemProperties.getMethod("get", String::class.java)
+        } catch (_: Exception) {
+            null
+        }
+    }
+
+    private fun property(name: String): String? =
+        try {
+            (getProperty?.invoke(null, name) as? String)?.takeIf { it.isNotEmpty() }
+        } catch (_: Exception) {
+            null
+        }
+}
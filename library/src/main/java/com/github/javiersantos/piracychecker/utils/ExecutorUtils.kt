@@ -0,0 +1,82 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Shared executors used to move the checks off the caller thread.
+ */
+internal object ExecutorUtils {
+    private const val KEEP_ALIVE_SECONDS = 30L
+    private val POOL_SIZE = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+    private const val IO_POOL_SIZE = 4
+
+    private val threadFactory = object : ThreadFactory {
+        private val count = AtomicInteger(1)
+
+        override fun newThread(runnable: Runnable): Thread {
+            val thread = Thread({
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+                runnable.run()
+            }, "PiracyChecker #${count.getAndIncrement()}")
+            thread.isDaemon = true
+            return thread
+        }
+    }
+
+    /**
+     * Bounded pool used when the host app doesn't supply its own executor. Threads are released
+     * after [KEEP_ALIVE_SECONDS] of inactivity so the pool costs nothing once checks are done.
+     */
+    val background: ExecutorService by lazy {
+        ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            LinkedBlockingQueue(), threadFactory
+        ).apply { allowCoreThreadTimeOut(true) }
+    }
+
+    /**
+     * Bounded pool for short blocking file system calls. Tasks running here must never wait for
+     * other tasks, so it can be used from the checks running on [background].
+     */
+    val io: ExecutorService by lazy {
+        ThreadPoolExecutor(
+            IO_POOL_SIZE, IO_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            LinkedBlockingQueue(), threadFactory
+        ).apply { allowCoreThreadTimeOut(true) }
+    }
+
+    /**
+     * Single thread used to time out the checks. Tasks scheduled here must be short.
+     */
+    val scheduler: ScheduledExecutorService by lazy {
+        ScheduledThreadPoolExecutor(1, threadFactory).apply {
+            setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+            allowCoreThreadTimeOut(true)
+            removeOnCancelPolicy = true
+        }
+    }
+
+    val mainThread: Executor by lazy {
+        val handler = Handler(Looper.getMainLooper())
+        Executor { command ->
+            if (Looper.myLooper() == Looper.getMainLooper()) command.run()
+            else handler.post(command)
+        }
+    }
+
+    /**
+     * Runs the command on the calling thread. Used when background verification is disabled.
+     */
+    val direct: Executor = Executor { it.run() }
+}
@@ -0,0 +1,107 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.Context
+import android.opengl.EGL14
+import android.opengl.EGLConfig
+import android.opengl.EGLContext
+import android.opengl.EGLDisplay
+import android.opengl.EGLSurface
+import android.opengl.GLES20
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Reads the renderer and vendor of the GPU. Without a current GL context `glGetString` returns
+ * null, so a 1x1 pbuffer context is created on a background thread, used once and destroyed. The
+ * strings are cached for the boot, and nothing is returned if the driver doesn't answer in time.
+ */
+internal object GlProbe {
+    private const val CACHE_NAME = "gl"
+    private const val RENDERER = "renderer"
+    private const val VENDOR = "vendor"
+    private const val TIMEOUT_MILLIS = 2000L
+
+    // A probe stuck in the driver is waited for again instead of starting another one
+    private var pending: Future<Map<String, String>>? = null
+
+    /**
+     * Returns the GL_RENDERER and GL_VENDOR strings, empty if they can't be read.
+     */
+    fun read(context: Context): Pair<String, String> {
+        val values = BootSession.load(context, CACHE_NAME) ?: probe(context) ?: emptyMap()
+        return values[RENDERER].orEmpty() to values[VENDOR].orEmpty()
+    }
+
+    private fun probe(context: Context): Map<String, String>? {
+        val future = synchronized(this) {
+            pending ?: FutureTask { readStrings() }.also {
+                // Its own thread, a driver that never answers doesn't hold a shared one
+                Thread(it, "PiracyChecker-GL").apply { isDaemon = true }.start()
+                pending = it
+            }
+        }
+        val values = try {
+            future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            return null
+        } catch (e: Exception) {
+            // Without EGL, the strings can't be read until the next boot either
+            emptyMap()
+        }
+        synchronized(this) { if (pending === future) pending = null }
+        BootSession.save(context, CACHE_NAME, values)
+        return values
+    }
+
+    private fun readStrings(): Map<String, String> {
+        val display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY)
+        if (display == EGL14.EGL_NO_DISPLAY) return emptyMap()
+        val version = IntArray(2)
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) return emptyMap()
+        var context: EGLContext = EGL14.EGL_NO_CONTEXT
+        var surface: EGLSurface = EGL14.EGL_NO_SURFACE
+        try {
+            val config = chooseConfig(display) ?: return emptyMap()
+            context = EGL14.eglCreateContext(
+                display, config, EGL14.EGL_NO_CONTEXT,
+                intArrayOf(EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE), 0
+            )
+            if (context == EGL14.EGL_NO_CONTEXT) return emptyMap()
+            surface = EGL14.eglCreatePbufferSurface(
+                display, config,
+                intArrayOf(EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE), 0
+            )
+            if (surface == EGL14.EGL_NO_SURFACE) return emptyMap()
+            if (!EGL14.eglMakeCurrent(display, surface, surface, context)) return emptyMap()
+            return mapOf(
+                RENDERER to GLES20.glGetString(GLES20.GL_RENDERER).orEmpty(),
+                VENDOR to GLES20.glGetString(GLES20.GL_VENDOR).orEmpty()
+            )
+        } finally {
+            EGL14.eglMakeCurrent(
+                display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT
+            )
+            if (surface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(display, surface)
+            if (context != EGL14.EGL_NO_CONTEXT) EGL14.eglDestroyContext(display, context)
+            // The display is shared with the rest of the app, so it's not terminated
+            EGL14.eglReleaseThread()
+        }
+    }
+
+    private fun chooseConfig(display: EGLDisplay): EGLConfig? {
+        val attributes = intArrayOf(
+            EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+            EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+            EGL14.EGL_RED_SIZE, 8,
+            EGL14.EGL_GREEN_SIZE, 8,
+            EGL14.EGL_BLUE_SIZE, 8,
+            EGL14.EGL_NONE
+        )
+        val configs = arrayOfNulls<EGLConfig>(1)
+        val count = IntArray(1)
+        if (!EGL14.eglChooseConfig(display, attributes, 0, configs, 0, 1, count, 0)) return null
+        return if (count[0] > 0) configs[0] else null
+    }
+}
@@ -14,18 +14,24 @@ import android.content.Intent
 import android.content.pm.ApplicationInfo
 import android.content.pm.PackageManager
 import android.content.pm.Signature
-import android.opengl.GLES20
 import android.os.Build
 import android.os.Environment
+import android.os.TransactionTooLargeException
 import android.util.Base64
 import androidx.appcompat.app.AlertDialog
 import androidx.core.app.ActivityCompat
 import com.github.javiersantos.R
+import com.github.javiersantos.piracychecker.catalog.BloomCatalog
+import com.github.javiersantos.piracychecker.catalog.CatalogSource
 import com.github.javiersantos.piracychecker.enums.AppType
 import com.github.javiersantos.piracychecker.enums.InstallerID
+import com.github.javiersantos.piracychecker.enums.MatchMode
 import com.github.javiersantos.piracychecker.enums.PirateApp
 import java.io.File
 import java.security.MessageDigest
+import java.util.BitSet
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
 
 internal fun Context.buildUnlicensedDialog(title: String, content: String): AlertDialog? {
     return (this as? Activity)?.let {
@@ -101,226 +107,412 @@ internal fun Context.verifyInstallerId(installerID: List<InstallerID>): Boolean
     return installer != null && validInstallers.contains(installer)
 }
 
-@SuppressLint("SdCardPath", "QueryPermissionsNeeded")
 internal fun Context.getPirateApp(
     lpf: Boolean,
     stores: Boolean,
     folders: Boolean,
     apks: Boolean,
-    extraApps: ArrayList<PirateApp>
-): PirateApp? {
-    if (!lpf && !stores && extraApps.isEmpty()) return null
+    extraApps: ArrayList<PirateApp>,
+    catalog: CatalogSource? = null,
+    blockedCertificates: Set<String> = emptySet(),
+    live: Boolean = false
+): PirateApp? = scanPirateApps(
+    lpf, stores, folders, apks, extraApps, catalog, blockedCertificates, live, false
+) {}.firstOrNull()
+
+/**
+ * Finds every app of the catalog on the device, calling [onDetected] as soon as each one is
+ * found. The first app returned is the one [getPirateApp] would return.
+ */
+internal fun Context.getPirateApps(
+    lpf: Boolean,
+    stores: Boolean,
+    folders: Boolean,
+    apks: Boolean,
+    extraApps: ArrayList<PirateApp>,
+    catalog: CatalogSource?,
+    blockedCertificates: Set<String>,
+    live: Boolean,
+    onDetected: (PirateApp) -> Unit
+): List<PirateApp> = scanPirateApps(
+    lpf, stores, folders, apks, extraApps, catalog, blockedCertificates, live, true, onDetected
+)
 
-    val apps = getApps(extraApps)
-    var installed = false
-    var theApp: PirateApp? = null
+/**
+ * Returns the apps found, in catalog order: the installed ones first, then the ones signed with
+ * any of the [blockedCertificates] and then the ones that only left files behind. Unless
+ * [exhaustive] is true, the scan stops at the first app found. When [live] is true, the
+ * installed apps are tracked by [LivePackageIndex] once they have all been looked for.
+ */
+@SuppressLint("SdCardPath", "QueryPermissionsNeeded")
+private fun Context.scanPirateApps(
+    lpf: Boolean,
+    stores: Boolean,
+    folders: Boolean,
+    apks: Boolean,
+    extraApps: ArrayList<PirateApp>,
+    catalog: CatalogSource?,
+    blockedCertificates: Set<String>,
+    live: Boolean,
+    exhaustive: Boolean,
+    onDetected: (PirateApp) -> Unit
+): List<PirateApp> {
+    if (!lpf && !stores && extraApps.isEmpty() && blockedCertificates.isEmpty())
+        return emptyList()
+
+    val types = appTypes(lpf, stores)
+    // Large catalogs stay on disk, falling back to the built-in apps if they can't be read
+    val filtered = catalog?.takeIf { it.isFiltered(this) }?.let { BloomCatalog.of(this, it) }
+    val apps = if (filtered == null) AppCatalog.of(this, catalog, extraApps) else null
+    val detected = BitSet(apps?.size ?: 0)
+    val installedApps = ArrayList<PirateApp>()
 
     try {
         val pm = packageManager
-        val list = pm?.getInstalledApplications(PackageManager.GET_META_DATA)
-        for (app in apps) {
-            val checkLPF = lpf && app.type == AppType.PIRATE
-            val checkStore = stores && app.type == AppType.STORE
-            val checkOther = app.type == AppType.OTHER
-            if (checkLPF || checkStore || checkOther) {
-                installed = list?.any { it.packageName.contains(app.packageName) } ?: false
-                if (!installed) {
-                    installed = isIntentAvailable(pm.getLaunchIntentForPackage(app.packageName))
+        if (filtered != null) {
+            for (app in pm.findFilteredApps(this, filtered, extraApps, types)) {
+                installedApps.add(app)
+                if (!exhaustive) break
+                onDetected(app)
+            }
+        } else if (apps != null) {
+            val enabled = apps.indexesOf(types).asList()
+            val scanKey = scanKey(catalog, extraApps, types)
+            val matcher = PackageMatcher.of(apps)
+            // Installed package names matching any app, only the changed ones are looked at
+            // when they are known from the last scan
+            val indexed = if (live) LivePackageIndex.matched(scanKey) else null
+            val matchedBefore = indexed
+                ?: ChangedPackagesScan.matchedSince(this, scanKey, matcher::matches)
+            val cursor = if (matchedBefore == null) ChangedPackagesScan.cursor(this) else null
+            val matched = HashSet<String>()
+            val found = if (matchedBefore != null) matcher.find(matchedBefore)
+            else pm.findInstalledApps(apps, enabled, matched)
+            // Reported before the launcher is queried, they are already known
+            if (exhaustive) enabled.filter { found[it] }.forEach { onDetected(apps[it]) }
+            // Queried once, and only if an app isn't in the installed list
+            val launchable by lazy {
+                if (matchedBefore != null) emptySet() else pm.launchablePackages()
+            }
+            var complete = true
+            for (index in enabled) {
+                val app = apps[index]
+                if (found[index]) {
+                    installedApps.add(app)
+                } else if (app.packageName in launchable) {
+                    installedApps.add(app)
+                    matched.add(app.packageName)
+                    if (exhaustive) onDetected(app)
+                } else {
+                    continue
+                }
+                detected.set(index)
+                if (!exhaustive) {
+                    complete = false
+                    break
                 }
             }
-            if (installed) {
-                theApp = app
-                break
+            // Only a scan that looked for every app is a valid starting point for the next ones
+            if (cursor != null && complete) ChangedPackagesScan.save(this, scanKey, cursor, matched)
+            if (live && indexed == null && (matchedBefore != null || complete)) {
+                LivePackageIndex.track(
+                    this, scanKey, scanSource(catalog, extraApps, types),
+                    matchedBefore ?: matched, matcher::matches
+                ) { packageName ->
+                    val matching = matcher.find(listOf(packageName))
+                    enabled.firstOrNull { matching[it] }?.let { apps[it] }
+                }
             }
         }
     } catch (_: Exception) {
     }
+    if (!exhaustive && installedApps.isNotEmpty()) return installedApps
 
-    if ((folders || apks) && theApp == null) {
-        if (hasPermissions()) {
-            var apkExist = false
-            var foldersExist = false
-            var containsFolder = false
-
-            for (app in apps) {
-                val pack = app.packageName
-                try {
-                    if (apks) {
-                        val file1 = File("/data/app/$pack-1/base.apk")
-                        val file2 = File("/data/app/$pack-2/base.apk")
-                        val file3 = File("/data/app/$pack.apk")
-                        val file4 = File("/data/data/$pack.apk")
-                        apkExist = file1.exists() || file2.exists() ||
-                                file3.exists() || file4.exists()
-                    }
-                    if (folders) {
-                        val file5 = File("/data/data/$pack")
-                        val file6 =
-                            File(
-                                "${Environment.getExternalStorageDirectory()}/Android/data/$pack"
-                            )
-                        foldersExist = file5.exists() || file6.exists()
-
-                        val appsContainer = File("/data/app/")
-                        if (appsContainer.exists()) {
-                            for (f in appsContainer.listFiles().orEmpty()) {
-                                if (f.name.startsWith(pack))
-                                    containsFolder = true
-                            }
-                        }
-                    }
-                } catch (_: Exception) {
-                }
-                if (containsFolder || apkExist || foldersExist) {
-                    theApp = app
-                    break
+    // Patchers that randomize their package name are still signed with the same certificate
+    val known = installedApps.mapTo(HashSet()) { it.packageName }
+    try {
+        for (info in CertificateScanner.findSignedWith(this, blockedCertificates)) {
+            if (info.packageName in known) continue
+            val app = PirateApp(
+                info.applicationInfo?.loadLabel(packageManager)?.toString() ?: info.packageName,
+                info.packageName, AppType.PIRATE, MatchMode.EXACT
+            )
+            installedApps.add(app)
+            if (!exhaustive) return installedApps
+            onDetected(app)
+        }
+    } catch (_: Exception) {
+    }
+
+    var leftovers = emptyList<PirateApp>()
+    if ((folders || apks) && hasPermissions()) {
+        try {
+            leftovers = if (filtered != null) {
+                // Streamed from the catalog, followed by the extra apps
+                filtered.read(this) { catalogApps ->
+                    findLeftovers(
+                        (catalogApps + extraApps).filter { it.packageName !in known },
+                        folders, apks, exhaustive, onDetected
+                    )
                 }
+            } else if (apps != null) {
+                findLeftovers(
+                    apps.asSequence().filterIndexed { index, _ -> !detected[index] },
+                    folders, apks, exhaustive, onDetected
+                )
+            } else {
+                emptyList()
             }
+        } catch (_: Exception) {
         }
     }
-
-    return theApp
+    return if (exhaustive) installedApps + leftovers else leftovers.take(1)
 }
 
 /**
- * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
- * except in compliance with the License. You may obtain a copy of the License at
- *
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- *
- * Unless required by applicable law or agreed to in writing, software distributed under the
- * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
- * either express or implied. See the License for the specific language governing permissions
- * and limitations under the License.
- *
- *
- * Copyright (C) 2013, Vladislav Gingo Skoumal (http://www.skoumal.net)
+ * Returns the [candidates] that left files behind, in order. /data/app is listed once, the
+ * remaining files are checked in parallel a window of candidates at a time, so a catalog streamed
+ * from disk is never held in memory at once.
  */
-internal fun isInEmulator(deepCheck: Boolean = false): Boolean {
-    var ratingCheckEmulator = 0
-
-    val product = try {
-        Build.PRODUCT
-    } catch (e: Exception) {
-        ""
-    }
-    if (product.containsIgnoreCase("sdk") || product.containsIgnoreCase("Andy") ||
-        product.containsIgnoreCase("ttVM_Hdragon") || product.containsIgnoreCase("google_sdk") ||
-        product.containsIgnoreCase("Droid4X") || product.containsIgnoreCase("nox") ||
-        product.containsIgnoreCase("sdk_x86") || product.containsIgnoreCase("sdk_google") ||
-        product.containsIgnoreCase("vbox86p")
-    ) {
-        ratingCheckEmulator++
+private fun findLeftovers(
+    candidates: Sequence<PirateApp>,
+    folders: Boolean,
+    apks: Boolean,
+    exhaustive: Boolean,
+    onDetected: (PirateApp) -> Unit
+): List<PirateApp> {
+    val appsContainer = DirectoryIndex.of("/data/app")
+    val externalData = "${Environment.getExternalStorageDirectory()}/Android/data"
+    val leftovers = ArrayList<PirateApp>()
+    val reported = HashSet<String>()
+    for (window in candidates.chunked(PROBE_BATCH_SIZE * PROBE_WINDOW_BATCHES)) {
+        val completion = ExecutorCompletionService<List<Int>>(ExecutorUtils.io)
+        val batches = window.indices.chunked(PROBE_BATCH_SIZE)
+        batches.forEach { batch ->
+            completion.submit {
+                batch.filter {
+                    hasAppFiles(window[it].packageName, folders, apks, appsContainer, externalData)
+                }.let { if (exhaustive) it else it.take(1) }
+            }
+        }
+        val withFiles = BitSet(window.size)
+        repeat(batches.size) {
+            val indexes = try {
+                completion.take().get()
+            } catch (_: ExecutionException) {
+                emptyList()
+            }
+            // Reported as soon as the batch is done, the list is sorted afterwards
+            indexes.forEach {
+                if (!reported.add(window[it].packageName)) return@forEach
+                withFiles.set(it)
+                if (exhaustive) onDetected(window[it])
+            }
+        }
+        var index = withFiles.nextSetBit(0)
+        while (index >= 0) {
+            leftovers.add(window[index])
+            index = withFiles.nextSetBit(index + 1)
+        }
+        if (!exhaustive && leftovers.isNotEmpty()) break
     }
+    return leftovers
+}
 
-    val manufacturer = try {
-        Build.MANUFACTURER
-    } catch (e: Exception) {
-        ""
-    }
-    if (manufacturer.equalsIgnoreCase("unknown") || manufacturer.equalsIgnoreCase("Genymotion") ||
-        manufacturer.containsIgnoreCase("Andy") || manufacturer.containsIgnoreCase("MIT") ||
-        manufacturer.containsIgnoreCase("nox") || manufacturer.containsIgnoreCase("TiantianVM")
-    ) {
-        ratingCheckEmulator++
-    }
+private const val PROBE_BATCH_SIZE = 32
+private const val PROBE_WINDOW_BATCHES = 8
 
-    val brand = try {
-        Build.BRAND
-    } catch (e: Exception) {
-        ""
-    }
-    if (brand.equalsIgnoreCase("generic") || brand.equalsIgnoreCase("generic_x86") ||
-        brand.equalsIgnoreCase("TTVM") || brand.containsIgnoreCase("Andy")
-    ) {
-        ratingCheckEmulator++
-    }
+@SuppressLint("SdCardPath")
+private fun hasAppFiles(
+    pack: String,
+    folders: Boolean,
+    apks: Boolean,
+    appsContainer: DirectoryIndex,
+    externalData: String
+): Boolean {
+    // Entries missing from the listing don't need to be checked, unless it couldn't be read
+    fun inAppsContainer(name: String) = !appsContainer.isListed || name in appsContainer
 
-    val device = try {
-        Build.DEVICE
-    } catch (e: Exception) {
-        ""
-    }
-    if (device.containsIgnoreCase("generic") || device.containsIgnoreCase("generic_x86") ||
-        device.containsIgnoreCase("Andy") || device.containsIgnoreCase("ttVM_Hdragon") ||
-        device.containsIgnoreCase("Droid4X") || device.containsIgnoreCase("nox") ||
-        device.containsIgnoreCase("generic_x86_64") || device.containsIgnoreCase("vbox86p")
-    ) {
-        ratingCheckEmulator++
+    try {
+        if (folders && appsContainer.hasPrefix(pack)) return true
+        if (apks) {
+            val apkExist =
+                (inAppsContainer("$pack-1") && File("/data/app/$pack-1/base.apk").exists()) ||
+                        (inAppsContainer("$pack-2") &&
+                                File("/data/app/$pack-2/base.apk").exists()) ||
+                        (inAppsContainer("$pack.apk") && File("/data/app/$pack.apk").exists()) ||
+                        File("/data/data/$pack.apk").exists()
+            if (apkExist) return true
+        }
+        if (folders)
+            return File("/data/data/$pack").exists() || File("$externalData/$pack").exists()
+    } catch (_: Exception) {
     }
+    return false
+}
 
-    val model = try {
-        Build.MODEL
-    } catch (e: Exception) {
-        ""
+internal fun Context.isDebug(): Boolean =
+    applicationInfo.flags and ApplicationInfo.FLAG_DEBUGGABLE != 0
+
+// Number of installed apps that can be listed for the cost of looking up a single package
+private const val APPS_PER_LOOKUP = 8
+private const val TARGETED_LOOKUP_LIMIT = 16
+
+@Volatile
+private var lastInstalledCount = -1
+
+/**
+ * Returns the indexes of the [enabled] apps of the catalog that are installed, adding the
+ * installed package names that matched to [matched]. A few apps matched by their exact package
+ * name are looked up one by one, otherwise the installed packages are listed without their
+ * metadata and matched in a single pass.
+ */
+private fun PackageManager.findInstalledApps(
+    apps: List<PirateApp>,
+    enabled: List<Int>,
+    matched: MutableSet<String>
+): BitSet {
+    val installedCount = lastInstalledCount
+    val targeted = enabled.all { apps[it].matchMode == MatchMode.EXACT } &&
+            if (installedCount < 0) enabled.size <= TARGETED_LOOKUP_LIMIT
+            else enabled.size * APPS_PER_LOOKUP < installedCount
+    if (!targeted) {
+        try {
+            // The framework already sends the list in chunks, so what matters is the size of
+            // each entry: without GET_META_DATA it's little more than the package name
+            val installed = getInstalledApplications(0)
+            lastInstalledCount = installed.size
+            return PackageMatcher.of(apps).find(installed.map { it.packageName }, matched)
+        } catch (e: RuntimeException) {
+            if (generateSequence<Throwable>(e) { it.cause }
+                    .none { it is TransactionTooLargeException }) throw e
+            // Too many apps for a single transaction, look the apps up instead
+        }
     }
-    if (model.equalsIgnoreCase("sdk") || model.equalsIgnoreCase("google_sdk") ||
-        model.containsIgnoreCase("Droid4X") || model.containsIgnoreCase("TiantianVM") ||
-        model.containsIgnoreCase("Andy") || model.equalsIgnoreCase(
-            "Android SDK built for x86_64"
-        ) ||
-        model.equalsIgnoreCase("Android SDK built for x86")
-    ) {
-        ratingCheckEmulator++
+    val found = BitSet(apps.size)
+    enabled.filter { isPackageInstalled(apps[it].packageName) }.forEach {
+        found.set(it)
+        matched.add(apps[it].packageName)
     }
+    return found
+}
 
-    val hardware = try {
-        Build.HARDWARE
-    } catch (e: Exception) {
-        ""
+private fun appTypes(lpf: Boolean, stores: Boolean): Set<AppType> {
+    val types = HashSet<AppType>()
+    if (lpf) types.add(AppType.PIRATE)
+    if (stores) types.add(AppType.STORE)
+    types.add(AppType.OTHER)
+    return types
+}
+
+/**
+ * Identifies the apps [getPirateApp] looks for, the key [LivePackageIndex] tracks them with.
+ */
+internal fun Context.pirateAppsKey(
+    lpf: Boolean,
+    stores: Boolean,
+    extraApps: List<PirateApp>,
+    catalog: CatalogSource?
+): String = scanKey(catalog, extraApps, appTypes(lpf, stores))
+
+/**
+ * Identifies what a scan looked for. The app is updated along with the library and its built-in
+ * apps, so the time it was last updated is part of it.
+ */
+private fun Context.scanKey(
+    catalog: CatalogSource?,
+    extraApps: List<PirateApp>,
+    types: Set<AppType>
+): String = listOf(
+    try {
+        packageManager.getPackageInfo(packageName, 0).lastUpdateTime
+    } catch (e: PackageManager.NameNotFoundException) {
+        0L
+    },
+    catalog?.key,
+    lookedFor(extraApps, types)
+).joinToString("|")
+
+/**
+ * Identifies what a scan looked for, whatever the content of the catalog: the same for the scans
+ * of a catalog before and after it's patched.
+ */
+private fun scanSource(
+    catalog: CatalogSource?,
+    extraApps: List<PirateApp>,
+    types: Set<AppType>
+): String = listOf(catalog?.id, lookedFor(extraApps, types)).joinToString("|")
+
+private fun lookedFor(extraApps: List<PirateApp>, types: Set<AppType>): String = listOf(
+    types.sorted(), extraApps.map { "${it.packageName}:${it.matchMode}:${it.type}" }.sorted()
+).joinToString("|")
+
+/**
+ * Returns the apps of the on-disk [catalog] and the [extraApps] of the given [types] that are
+ * installed, in catalog order. Every installed package is looked up in the filter, so they are
+ * always listed, along with the launchable ones.
+ */
+private fun PackageManager.findFilteredApps(
+    context: Context,
+    catalog: BloomCatalog,
+    extraApps: List<PirateApp>,
+    types: Set<AppType>
+): List<PirateApp> {
+    val installed = HashSet<String>()
+    try {
+        getInstalledApplications(0).mapTo(installed) { it.packageName }
+    } catch (e: RuntimeException) {
+        if (generateSequence<Throwable>(e) { it.cause }
+                .none { it is TransactionTooLargeException }) throw e
+        // Too many apps for a single transaction, only the launchable ones are looked up
     }
-    if (hardware.equalsIgnoreCase("goldfish") || hardware.equalsIgnoreCase("vbox86") ||
-        hardware.containsIgnoreCase("nox") || hardware.containsIgnoreCase("ttVM_x86")
-    ) {
-        ratingCheckEmulator++
+    installed.addAll(launchablePackages())
+    val found = catalog.find(context, installed).filter { (it.type ?: AppType.OTHER) in types }
+    val foundNames = found.mapTo(HashSet()) { it.packageName }
+    return found + extraApps.filter { app ->
+        (app.type ?: AppType.OTHER) in types &&
+                installed.any { PackageMatcher.matches(app, it) } && foundNames.add(app.packageName)
     }
+}
 
-    val fingerprint = try {
-        Build.FINGERPRINT
-    } catch (e: Exception) {
-        ""
-    }
-    if (fingerprint.containsIgnoreCase("generic") ||
-        fingerprint.containsIgnoreCase("generic/sdk/generic") ||
-        fingerprint.containsIgnoreCase("generic_x86/sdk_x86/generic_x86") ||
-        fingerprint.containsIgnoreCase("Andy") || fingerprint.containsIgnoreCase("ttVM_Hdragon") ||
-        fingerprint.containsIgnoreCase("generic_x86_64") ||
-        fingerprint.containsIgnoreCase("generic/google_sdk/generic") ||
-        fingerprint.containsIgnoreCase("vbox86p") ||
-        fingerprint.containsIgnoreCase("generic/vbox86p/vbox86p")
-    ) {
-        ratingCheckEmulator++
+private fun PackageManager.isPackageInstalled(packageName: String): Boolean =
+    try {
+        getPackageInfo(packageName, 0)
+        true
+    } catch (e: PackageManager.NameNotFoundException) {
+        false
     }
 
-    if (deepCheck) {
-        try {
-            GLES20.glGetString(GLES20.GL_RENDERER)?.let {
-                if (it.containsIgnoreCase("Bluestacks") || it.containsIgnoreCase("Translator"))
-                    ratingCheckEmulator += 10
-            }
-        } catch (_: Exception) {
-        }
+/**
+ * Whether [packageName] is installed, or at least has an activity the launcher can start when it
+ * isn't visible to the app.
+ */
+internal fun PackageManager.isInstalledOrLaunchable(packageName: String): Boolean =
+    isPackageInstalled(packageName) || getLaunchIntentForPackage(packageName) != null
 
-        try {
-            val sharedFolder = File(
-                "${Environment.getExternalStorageDirectory()}${File.separatorChar}windows" +
-                        "${File.separatorChar}BstSharedFolder"
-            )
-            if (sharedFolder.exists())
-                ratingCheckEmulator += 10
-        } catch (_: Exception) {
+/**
+ * Returns whether a package name is one of the apps [getPirateApp] looks for. The catalog and its
+ * matcher are read here, once, so the function returned never reads or builds anything.
+ */
+internal fun Context.cataloguedPackages(
+    extraApps: List<PirateApp>,
+    catalog: CatalogSource?
+): (String) -> Boolean {
+    // Only the filter is checked for an on-disk catalog, a few other packages may be watched
+    catalog?.takeIf { it.isFiltered(this) }?.let { BloomCatalog.of(this, it) }?.let { filtered ->
+        return { packageName ->
+            filtered.mightMatch(packageName) ||
+                    extraApps.any { PackageMatcher.matches(it, packageName) }
         }
     }
-
-    return ratingCheckEmulator > 3
+    val matcher = PackageMatcher.of(AppCatalog.of(this, catalog, extraApps))
+    return { matcher.matches(it) }
 }
 
-internal fun Context.isDebug(): Boolean =
-    applicationInfo.flags and ApplicationInfo.FLAG_DEBUGGABLE != 0
-
-private fun getApps(extraApps: ArrayList<PirateApp>): ArrayList<PirateApp> {
+/**
+ * Creates the built-in apps. Only called once per process by [AppCatalog].
+ */
+internal fun builtInApps(): List<PirateApp> {
     val apps = ArrayList<PirateApp>()
     apps.add(
         PirateApp(
@@ -658,18 +850,24 @@ private fun getApps(extraApps: ArrayList<PirateApp>): ArrayList<PirateApp> {
             AppType.STORE
         )
     )
-    apps.addAll(extraApps)
-    return ArrayList(apps.distinctBy { it.packageName })
+    return apps
 }
 
+/**
+ * Returns the packages [PackageManager.getLaunchIntentForPackage] would find an activity for,
+ * with two queries instead of two for every package.
+ */
 @SuppressLint("QueryPermissionsNeeded")
-private fun Context.isIntentAvailable(intent: Intent?): Boolean {
-    intent ?: return false
-    return try {
-        packageManager.queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY).isNotEmpty()
-    } catch (e: Exception) {
-        false
+private fun PackageManager.launchablePackages(): Set<String> {
+    val packages = HashSet<String>()
+    for (category in arrayOf(Intent.CATEGORY_INFO, Intent.CATEGORY_LAUNCHER)) {
+        try {
+            queryIntentActivities(Intent(Intent.ACTION_MAIN).addCategory(category), 0)
+                .mapTo(packages) { it.activityInfo.packageName }
+        } catch (_: Exception) {
+        }
     }
+    return packages
 }
 
 private fun Context.hasPermissions(): Boolean {
@@ -691,6 +889,3 @@ private fun Context.shouldAskPermission(permission: String): Boolean {
     }
     return false
 }
-
-private fun String.equalsIgnoreCase(other: String) = this.equals(other, true)
-private fun String.containsIgnoreCase(other: String) = this.contains(other, true)
\ No newline at end of file
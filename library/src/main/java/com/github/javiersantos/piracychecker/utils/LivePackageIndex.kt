@@ -0,0 +1,114 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.Context
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+
+/**
+ * Installed package names matched by the apps looked for, built once by a complete scan and then
+ * kept up to date by [PackageChangeMonitor], so the following scans are answered from memory.
+ * Each index is identified by the same key as the [ChangedPackagesScan] state, which is saved
+ * again after every change.
+ */
+internal object LivePackageIndex {
+    private class Index(
+        val source: String,
+        val matched: MutableSet<String>,
+        val matches: (String) -> Boolean,
+        val resolve: (String) -> PirateApp?
+    )
+
+    private val indexes = ConcurrentHashMap<String, Index>()
+    private val listeners = ConcurrentHashMap<String, MutableSet<(PirateApp) -> Unit>>()
+
+    @Volatile
+    private var appContext: Context? = null
+
+    private val onPackageChanged: (String) -> Unit = { packageName ->
+        // Called on the main thread, the package manager is queried on the io executor
+        if (indexes.isNotEmpty()) ExecutorUtils.io.execute { update(packageName) }
+    }
+
+    /**
+     * Returns the installed packages matched by the apps identified by [key], or null if they
+     * aren't tracked yet.
+     */
+    fun matched(key: String): Set<String>? =
+        indexes[key]?.let { index -> synchronized(index) { HashSet(index.matched) } }
+
+    /**
+     * Starts keeping [matched] up to date for the apps identified by [key]. The index of a
+     * previous content of the same catalog is dropped, and its listeners moved to this one.
+     *
+     * @param source
+     * Identifies the apps looked for whatever the content of the catalog
+     * @param matches
+     * Whether an installed package name matches any of the apps looked for
+     * @param resolve
+     * Returns the app reported for a package name newly matched, or null if it's not reported
+     */
+    fun track(
+        context: Context,
+        key: String,
+        source: String,
+        matched: Set<String>,
+        matches: (String) -> Boolean,
+        resolve: (String) -> PirateApp?
+    ) {
+        appContext = context.applicationContext ?: context
+        val index = Index(source, HashSet(matched), matches, resolve)
+        if (indexes.putIfAbsent(key, index) != null) return
+        // Superseded after a refresh or a patch of the catalog, it would be kept up to date for
+        // the life of the process
+        for ((previousKey, previous) in indexes) {
+            if (previousKey == key || previous.source != source) continue
+            if (!indexes.remove(previousKey, previous)) continue
+            listeners.remove(previousKey)?.let {
+                listeners.getOrPut(key) { CopyOnWriteArraySet() }.addAll(it)
+            }
+        }
+        PackageChangeMonitor.addListener(context, onPackageChanged)
+    }
+
+    /**
+     * Calls [listener] with every app installed while the index identified by [key] is tracked.
+     */
+    fun addListener(key: String, listener: (PirateApp) -> Unit) {
+        listeners.getOrPut(key) { CopyOnWriteArraySet() }.add(listener)
+    }
+
+    fun removeListener(listener: (PirateApp) -> Unit) {
+        listeners.values.forEach { it.remove(listener) }
+    }
+
+    private fun update(packageName: String) {
+        val context = appContext ?: return
+        val installed = try {
+            context.packageManager.isInstalledOrLaunchable(packageName)
+        } catch (_: Exception) {
+            return
+        }
+        for ((key, index) in indexes) {
+            val matches = installed && index.matches(packageName)
+            val matched = synchronized(index) {
+                val changed =
+                    if (matches) index.matched.add(packageName)
+                    else index.matched.remove(packageName)
+                if (changed) HashSet(index.matched) else null
+            } ?: continue
+            // So the next process starts from the new state too
+            ChangedPackagesScan.cursor(context)?.let {
+                ChangedPackagesScan.save(context, key, it, matched)
+            }
+            if (!matches) continue
+            val app = index.resolve(packageName) ?: continue
+            listeners[key]?.forEach {
+                try {
+                    it(app)
+                } catch (_: Exception) {
+                }
+            }
+        }
+    }
+}
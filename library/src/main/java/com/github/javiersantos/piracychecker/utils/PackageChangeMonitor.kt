@@ -0,0 +1,62 @@
+package com.github.javiersantos.piracychecker.utils
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.Build
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Process-wide receiver for package added, removed and replaced broadcasts. It is registered on
+ * the application context the first time a listener is added and never unregistered, so it lives
+ * as long as the process.
+ */
+internal object PackageChangeMonitor {
+    private val listeners = CopyOnWriteArrayList<(String) -> Unit>()
+    private var registered = false
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context?, intent: Intent?) {
+            val packageName = intent?.data?.schemeSpecificPart ?: return
+            listeners.forEach {
+                try {
+                    it(packageName)
+                } catch (_: Exception) {
+                }
+            }
+        }
+    }
+
+    fun addListener(context: Context, listener: (String) -> Unit) {
+        if (!listeners.contains(listener)) listeners.add(listener)
+        register(context)
+    }
+
+    fun removeListener(listener: (String) -> Unit) {
+        listeners.remove(listener)
+    }
+
+    @Synchronized
+    private fun register(context: Context) {
+        if (registered) return
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_PACKAGE_ADDED)
+            addAction(Intent.ACTION_PACKAGE_REMOVED)
+            addAction(Intent.ACTION_PACKAGE_REPLACED)
+            addDataScheme("package")
+        }
+        registered = try {
+            val appContext = context.applicationContext ?: context
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                // Package broadcasts are sent by the system, so they still reach this receiver
+                appContext.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED)
+            } else {
+                appContext.registerReceiver(receiver, filter)
+            }
+            true
+        } catch (e: Exception) {
+            false
+        }
+    }
+}
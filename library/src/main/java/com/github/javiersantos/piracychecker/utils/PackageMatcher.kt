@@ -0,0 +1,133 @@
+package com.github.javiersantos.piracychecker.utils
+
+import com.github.javiersantos.piracychecker.enums.MatchMode
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import java.util.BitSet
+
+/**
+ * Aho-Corasick automaton built from the package names of [apps], so a single pass over an
+ * installed package name finds every app it matches, whatever the size of the catalog.
+ */
+internal class PackageMatcher private constructor(private val apps: List<PirateApp>) {
+    private val lengths = IntArray(apps.size) { apps[it].packageName.length }
+    private val modes = Array(apps.size) { apps[it].matchMode }
+    private val transitions = ArrayList<HashMap<Char, Int>>()
+    private val failures: IntArray
+    private val outputs: Array<IntArray>
+
+    init {
+        transitions.add(HashMap())
+        val terminals = ArrayList<MutableList<Int>>()
+        terminals.add(ArrayList())
+        apps.forEachIndexed { index, app ->
+            if (app.packageName.isEmpty()) return@forEachIndexed
+            var node = 0
+            for (c in app.packageName) {
+                node = transitions[node].getOrPut(c) {
+                    transitions.add(HashMap())
+                    terminals.add(ArrayList())
+                    transitions.size - 1
+                }
+            }
+            terminals[node].add(index)
+        }
+
+        // Breadth-first, so the failure link of a node is known before the ones of its children
+        failures = IntArray(transitions.size)
+        val queue = ArrayDeque(transitions[0].values)
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            for ((c, child) in transitions[node]) {
+                var failure = failures[node]
+                while (failure != 0 && c !in transitions[failure]) failure = failures[failure]
+                failures[child] = transitions[failure][c] ?: 0
+                terminals[child].addAll(terminals[failures[child]])
+                queue.add(child)
+            }
+        }
+        outputs = Array(terminals.size) { terminals[it].toIntArray() }
+    }
+
+    /**
+     * Whether [packageName] matches any of the apps.
+     */
+    fun matches(packageName: String): Boolean {
+        var found = false
+        scan(packageName) {
+            found = true
+            false
+        }
+        return found
+    }
+
+    /**
+     * Returns the indexes in the catalog of the apps matched by any of [packageNames], adding
+     * the package names that matched any app to [matched].
+     */
+    @JvmOverloads
+    fun find(packageNames: Iterable<String>, matched: MutableCollection<String>? = null): BitSet {
+        val found = BitSet(apps.size)
+        for (packageName in packageNames) {
+            var any = false
+            scan(packageName) {
+                found.set(it)
+                any = true
+                true
+            }
+            if (any) matched?.add(packageName)
+        }
+        return found
+    }
+
+    /**
+     * Calls [onMatch] with the index of every app matched by [packageName] until it returns
+     * false. The same index can be reported more than once.
+     */
+    private inline fun scan(packageName: String, onMatch: (Int) -> Boolean) {
+        var node = 0
+        for (i in packageName.indices) {
+            val c = packageName[i]
+            while (node != 0 && c !in transitions[node]) node = failures[node]
+            node = transitions[node][c] ?: 0
+            for (index in outputs[node]) {
+                val start = i + 1 - lengths[index]
+                val matches = when (modes[index]) {
+                    MatchMode.CONTAINS -> true
+                    MatchMode.PREFIX -> start == 0
+                    MatchMode.EXACT -> start == 0 && i == packageName.length - 1
+                }
+                if (matches && !onMatch(index)) return
+            }
+        }
+    }
+
+    companion object {
+        @Volatile
+        private var last: PackageMatcher? = null
+
+        /**
+         * Whether [packageName] matches [app], for the few apps not worth building a matcher for.
+         */
+        fun matches(app: PirateApp, packageName: String): Boolean =
+            app.packageName.isNotEmpty() && when (app.matchMode) {
+                MatchMode.CONTAINS -> packageName.contains(app.packageName)
+                MatchMode.PREFIX -> packageName.startsWith(app.packageName)
+                MatchMode.EXACT -> packageName == app.packageName
+            }
+
+        /**
+         * Returns the matcher for [apps], reusing the last one built if the catalog is the same.
+         */
+        fun of(apps: List<PirateApp>): PackageMatcher {
+            last?.let { matcher ->
+                if (matcher.apps === apps) return matcher
+                if (matcher.apps.size == apps.size &&
+                    matcher.apps.indices.all { matcher.apps[it] === apps[it] }
+                ) return matcher
+            }
+            // The catalog is immutable, other lists are copied
+            return PackageMatcher(if (apps is AppCatalog) apps else ArrayList(apps))
+                .also { last = it }
+        }
+    }
+}
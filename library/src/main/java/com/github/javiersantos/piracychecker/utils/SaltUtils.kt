@@ -45,6 +45,7 @@ internal object SaltUtils {
         return data
     }
 
+    @Synchronized
     fun getSalt(context: Context?): ByteArray? {
         if (mSalt == null) {
             mSalt = context?.let {
@@ -0,0 +1,282 @@
+package com.github.javiersantos.piracychecker
+
+import android.content.Context
+import com.github.javiersantos.piracychecker.checks.PiracyCheck
+import com.github.javiersantos.piracychecker.checks.PiracyCheckCallback
+import com.github.javiersantos.piracychecker.checks.PiracyCheckResult
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.CheckStatus
+import com.github.javiersantos.piracychecker.enums.PiracyCheckerError
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import com.github.javiersantos.piracychecker.enums.VerdictStatus
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.mock
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+class VerificationPipelineTest {
+    private val context = mock(Context::class.java)
+    private val pirateApp = PirateApp("LuckyPatcher", "com.chelpus.lackypatch", AppType.PIRATE)
+
+    /**
+     * Reports [result] as soon as it's executed, or never if it's null.
+     */
+    private class FakeCheck(
+        override val id: String,
+        private val result: PiracyCheckResult?,
+        override val cost: Int = PiracyCheck.COST_LOW
+    ) : PiracyCheck {
+        @Volatile
+        var cancelled = false
+
+        override fun execute(context: Context, callback: PiracyCheckCallback) {
+            result?.let { callback.onResult(it) }
+        }
+
+        override fun cancel() {
+            cancelled = true
+        }
+    }
+
+    private class ThrowingCheck(override val id: String) : PiracyCheck {
+        override val cost = PiracyCheck.COST_LOW
+
+        override fun execute(context: Context, callback: PiracyCheckCallback) =
+            throw IllegalStateException("Broken check")
+    }
+
+    private fun verify(
+        vararg checks: PiracyCheck,
+        exhaustive: Boolean = false,
+        deadline: Deadline? = null
+    ): PiracyVerdict {
+        val verdict = AtomicReference<PiracyVerdict>()
+        val latch = CountDownLatch(1)
+        // Checks run one after another on the test thread, from the cheapest one
+        VerificationPipeline(
+            context, checks.toList(), Executor { it.run() }, exhaustive, deadline
+        ) {
+            verdict.set(it)
+            latch.countDown()
+        }.start()
+        assertTrue("No verdict", latch.await(5, TimeUnit.SECONDS))
+        return verdict.get()
+    }
+
+    @Test
+    fun allowsWhenEveryCheckPasses() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.SIGNATURE, PiracyCheckResult.passed()),
+            FakeCheck(PiracyCheck.LICENSING, PiracyCheckResult.passed()),
+            FakeCheck(PiracyCheck.DEBUG, PiracyCheckResult.passed()),
+            FakeCheck(PiracyCheck.PIRATE_APP, PiracyCheckResult.passed())
+        )
+        assertEquals(VerdictStatus.ALLOWED, verdict.status)
+        assertTrue(verdict.outcomes.all { it.status == CheckStatus.PASSED })
+    }
+
+    @Test
+    fun allowsWithoutChecks() {
+        assertEquals(VerdictStatus.ALLOWED, verify().status)
+    }
+
+    @Test
+    fun licenseErrorBeatsPirateApp() {
+        val verdict = verify(
+            FakeCheck(
+                PiracyCheck.LICENSING,
+                PiracyCheckResult.error(PiracyCheckerError.NOT_MARKET_MANAGED)
+            ),
+            // Found first, it doesn't change the result
+            FakeCheck(
+                PiracyCheck.PIRATE_APP,
+                PiracyCheckResult.failed(PiracyCheckerError.PIRATE_APP_INSTALLED, pirateApp),
+                PiracyCheck.COST_TRIVIAL
+            )
+        )
+        assertEquals(VerdictStatus.ERROR, verdict.status)
+        assertEquals(PiracyCheckerError.NOT_MARKET_MANAGED, verdict.error)
+    }
+
+    @Test
+    fun pirateAppBeatsUnlicensed() {
+        val verdict = verify(
+            FakeCheck(
+                PiracyCheck.LICENSING, PiracyCheckResult.failed(PiracyCheckerError.NOT_LICENSED)
+            ),
+            FakeCheck(
+                PiracyCheck.PIRATE_APP,
+                PiracyCheckResult.failed(PiracyCheckerError.PIRATE_APP_INSTALLED, pirateApp)
+            )
+        )
+        assertEquals(VerdictStatus.NOT_ALLOWED, verdict.status)
+        assertEquals(PiracyCheckerError.PIRATE_APP_INSTALLED, verdict.error)
+        assertSame(pirateApp, verdict.pirateApp)
+    }
+
+    @Test
+    fun debugAndEmulatorAreIgnoredWhenUnlicensed() {
+        val verdict = verify(
+            FakeCheck(
+                PiracyCheck.LICENSING, PiracyCheckResult.failed(PiracyCheckerError.NOT_LICENSED)
+            ),
+            FakeCheck(
+                PiracyCheck.DEBUG, PiracyCheckResult.failed(PiracyCheckerError.USING_DEBUG_APP)
+            ),
+            FakeCheck(
+                PiracyCheck.EMULATOR,
+                PiracyCheckResult.failed(PiracyCheckerError.USING_APP_IN_EMULATOR)
+            )
+        )
+        assertEquals(VerdictStatus.NOT_ALLOWED, verdict.status)
+        assertEquals(PiracyCheckerError.NOT_LICENSED, verdict.error)
+    }
+
+    @Test
+    fun debugIsReportedWhenLicensed() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.LICENSING, PiracyCheckResult.passed()),
+            FakeCheck(
+                PiracyCheck.DEBUG, PiracyCheckResult.failed(PiracyCheckerError.USING_DEBUG_APP)
+            ),
+            FakeCheck(
+                PiracyCheck.PIRATE_APP,
+                PiracyCheckResult.failed(PiracyCheckerError.PIRATE_APP_INSTALLED, pirateApp)
+            )
+        )
+        assertEquals(PiracyCheckerError.USING_DEBUG_APP, verdict.error)
+    }
+
+    @Test
+    fun emulatorIsWaitedForWhenLicensed() {
+        val emulator = FakeCheck(PiracyCheck.EMULATOR, null, PiracyCheck.COST_HIGH)
+        val verdict = AtomicReference<PiracyVerdict>()
+        VerificationPipeline(
+            context,
+            listOf(FakeCheck(PiracyCheck.LICENSING, PiracyCheckResult.passed()), emulator),
+            Executor { it.run() }
+        ) { verdict.set(it) }.start()
+        // The emulator check can still block the app
+        assertNull(verdict.get())
+    }
+
+    @Test
+    fun customCheckIsAGate() {
+        val licensing = FakeCheck(PiracyCheck.LICENSING, null, PiracyCheck.COST_MEDIUM)
+        val verdict = verify(
+            licensing,
+            FakeCheck(
+                "custom", PiracyCheckResult.failed(PiracyCheckerError.INVALID_INSTALLER_ID),
+                PiracyCheck.COST_HIGH
+            )
+        )
+        // Reported without waiting for the license, which is cancelled
+        assertEquals(VerdictStatus.NOT_ALLOWED, verdict.status)
+        assertEquals(PiracyCheckerError.INVALID_INSTALLER_ID, verdict.error)
+        assertEquals(CheckStatus.CANCELLED, verdict.outcome(PiracyCheck.LICENSING)?.status)
+        assertTrue(licensing.cancelled)
+    }
+
+    @Test
+    fun customCheckErrorIsReported() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.LICENSING, PiracyCheckResult.passed()),
+            FakeCheck("custom", PiracyCheckResult.error(PiracyCheckerError.UNKNOWN))
+        )
+        assertEquals(VerdictStatus.ERROR, verdict.status)
+    }
+
+    @Test
+    fun signatureBeatsCustomCheck() {
+        val verdict = verify(
+            FakeCheck(
+                "custom", PiracyCheckResult.failed(PiracyCheckerError.INVALID_INSTALLER_ID),
+                PiracyCheck.COST_TRIVIAL
+            ),
+            FakeCheck(
+                PiracyCheck.SIGNATURE,
+                PiracyCheckResult.failed(PiracyCheckerError.SIGNATURE_NOT_VALID),
+                PiracyCheck.COST_HIGH
+            )
+        )
+        assertEquals(PiracyCheckerError.SIGNATURE_NOT_VALID, verdict.error)
+    }
+
+    @Test
+    fun throwingCheckFailsWithUnknownError() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.LICENSING, PiracyCheckResult.passed()),
+            ThrowingCheck("custom")
+        )
+        assertEquals(VerdictStatus.NOT_ALLOWED, verdict.status)
+        assertEquals(PiracyCheckerError.UNKNOWN, verdict.error)
+        assertEquals(CheckStatus.FAILED, verdict.outcome("custom")?.status)
+    }
+
+    @Test
+    fun exhaustiveWaitsForEveryCheck() {
+        val verdict = verify(
+            FakeCheck(
+                PiracyCheck.SIGNATURE,
+                PiracyCheckResult.failed(PiracyCheckerError.SIGNATURE_NOT_VALID)
+            ),
+            FakeCheck(
+                PiracyCheck.PIRATE_APP,
+                PiracyCheckResult.failed(PiracyCheckerError.PIRATE_APP_INSTALLED, pirateApp),
+                PiracyCheck.COST_HIGH
+            ),
+            exhaustive = true
+        )
+        assertEquals(PiracyCheckerError.SIGNATURE_NOT_VALID, verdict.error)
+        assertTrue(verdict.isComplete)
+        assertEquals(listOf(pirateApp), verdict.pirateApps)
+    }
+
+    @Test
+    fun deadlineUsesSavedResult() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.SIGNATURE, PiracyCheckResult.passed()),
+            FakeCheck(PiracyCheck.LICENSING, null),
+            deadline = Deadline(50, false) {
+                if (it == PiracyCheck.LICENSING) PiracyCheckResult.passed() else null
+            }
+        )
+        assertEquals(VerdictStatus.ALLOWED, verdict.status)
+        val licensing = verdict.outcome(PiracyCheck.LICENSING)
+        assertNotNull(licensing)
+        assertTrue(licensing!!.timedOut)
+        assertTrue(licensing.fromCache)
+        assertFalse(verdict.outcome(PiracyCheck.SIGNATURE)!!.timedOut)
+        assertFalse(verdict.isFresh)
+    }
+
+    @Test
+    fun deadlineFailsByDefaultWithoutSavedResult() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.LICENSING, null),
+            deadline = Deadline(50, false) { null }
+        )
+        assertEquals(VerdictStatus.NOT_ALLOWED, verdict.status)
+        assertEquals(PiracyCheckerError.NOT_LICENSED, verdict.error)
+        val licensing = verdict.outcome(PiracyCheck.LICENSING)!!
+        assertTrue(licensing.timedOut)
+        assertFalse(licensing.fromCache)
+    }
+
+    @Test
+    fun deadlinePassesByDefaultWithoutSavedResult() {
+        val verdict = verify(
+            FakeCheck(PiracyCheck.LICENSING, null),
+            deadline = Deadline(50, true) { null }
+        )
+        assertEquals(VerdictStatus.ALLOWED, verdict.status)
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.javiersantos.piracychecker.catalog
+
+import android.content.Context
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.MatchMode
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.fail
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito.mock
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.KeyPair
+import java.security.KeyPairGenerator
+import java.security.PrivateKey
+import java.security.SignatureException
+
+class CatalogPatcherTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val context = mock(Context::class.java)
+
+    private val luckyPatcher = PirateApp("Lucky Patcher", "com.chelpus.lackypatch", AppType.PIRATE)
+    private val aptoide =
+        PirateApp("Aptoide", "cm.aptoide.pt", AppType.STORE, MatchMode.EXACT)
+    private val freedom =
+        PirateApp("Freedom", "cc.madkite.freedom", AppType.PIRATE, MatchMode.PREFIX)
+
+    private fun describe(apps: List<PirateApp>): List<String> =
+        apps.map { "${it.name}|${it.packageName}|${it.type}|${it.matchMode}" }
+
+    private fun writeCatalog(apps: List<PirateApp>, revision: Int): File =
+        folder.newFile("catalog").also { file ->
+            CatalogWriter(FileOutputStream(file)).use { it.write(apps, revision) }
+        }
+
+    private fun readCatalog(file: File): Pair<Int, List<PirateApp>> =
+        CatalogReader(FileInputStream(file)).use { it.revision to it.asSequence().toList() }
+
+    private fun writePatch(
+        fromRevision: Int,
+        toRevision: Int,
+        privateKey: PrivateKey = keys.private,
+        operations: CatalogPatchWriter.() -> Unit
+    ): File = File(folder.root, "patch-$fromRevision-$toRevision").also { file ->
+        CatalogPatchWriter(FileOutputStream(file)).use {
+            it.operations()
+            it.write(fromRevision, toRevision, privateKey)
+        }
+    }
+
+    private inline fun <reified T : Exception> assertFails(block: () -> Unit) {
+        try {
+            block()
+            fail("Expected ${T::class.java.simpleName}")
+        } catch (e: Exception) {
+            if (e !is T) throw e
+        }
+    }
+
+    @Test
+    fun catalogRoundTrip() {
+        val bytes = ByteArrayOutputStream()
+        CatalogWriter(bytes).use { it.write(listOf(luckyPatcher, aptoide, freedom), 7) }
+        CatalogReader(ByteArrayInputStream(bytes.toByteArray())).use { reader ->
+            assertEquals(CatalogFormat.VERSION, reader.version)
+            assertEquals(7, reader.revision)
+            assertEquals(3, reader.size)
+            assertEquals(
+                describe(listOf(luckyPatcher, aptoide, freedom)),
+                describe(reader.asSequence().toList())
+            )
+        }
+    }
+
+    @Test
+    fun packageNamesAreNotWrittenInClear() {
+        val bytes = ByteArrayOutputStream()
+        CatalogWriter(bytes).use { it.write(listOf(luckyPatcher)) }
+        assertFalse(String(bytes.toByteArray(), Charsets.ISO_8859_1).contains("chelpus"))
+    }
+
+    @Test
+    fun readsVersion1WithoutRevision() {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.write(CatalogFormat.MAGIC)
+            output.writeShort(1)
+            output.writeInt(1)
+            CatalogWriter.writeEntry(output, aptoide)
+        }
+        CatalogReader(ByteArrayInputStream(bytes.toByteArray())).use { reader ->
+            assertEquals(0, reader.revision)
+            assertEquals(describe(listOf(aptoide)), describe(reader.asSequence().toList()))
+        }
+    }
+
+    @Test
+    fun rejectsOtherFiles() {
+        assertFails<IOException> {
+            CatalogReader(ByteArrayInputStream("PK\u0003\u0004....".toByteArray()))
+        }
+    }
+
+    @Test
+    fun rejectsNewerVersions() {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.write(CatalogFormat.MAGIC)
+            output.writeShort(CatalogFormat.VERSION + 1)
+            output.writeInt(0)
+            output.writeInt(0)
+        }
+        assertFails<IOException> { CatalogReader(ByteArrayInputStream(bytes.toByteArray())) }
+    }
+
+    @Test
+    fun appliesPatch() {
+        val catalog = writeCatalog(listOf(luckyPatcher, aptoide, freedom), 3)
+        val modified = PirateApp("Aptoide TV", "cm.aptoide.pt", AppType.STORE, MatchMode.PREFIX)
+        val added = PirateApp("Uret Patcher", "uret.jasi2169.patcher", AppType.PIRATE)
+        val patch = writePatch(3, 4) {
+            remove(luckyPatcher)
+            modify(modified)
+            add(added)
+        }
+        CatalogPatcher.apply(context, catalog, patch, keys.public)
+
+        val (revision, apps) = readCatalog(catalog)
+        assertEquals(4, revision)
+        // Modified apps stay where they were, added ones go last
+        assertEquals(describe(listOf(modified, freedom, added)), describe(apps))
+    }
+
+    @Test
+    fun appRemovedAndAddedAgainGoesLast() {
+        val catalog = writeCatalog(listOf(luckyPatcher, aptoide, freedom), 0)
+        val unknown = PirateApp("Unknown", "com.unknown", AppType.OTHER)
+        val patch = writePatch(0, 1) {
+            remove(luckyPatcher)
+            add(luckyPatcher)
+            // Not in the catalog, nothing to remove
+            remove(unknown)
+        }
+        CatalogPatcher.apply(context, catalog, patch, keys.public)
+
+        val (revision, apps) = readCatalog(catalog)
+        assertEquals(1, revision)
+        assertEquals(describe(listOf(aptoide, freedom, luckyPatcher)), describe(apps))
+    }
+
+    @Test
+    fun revisionFollowsSuccessivePatches() {
+        val catalog = writeCatalog(listOf(luckyPatcher), 0)
+        CatalogPatcher.apply(context, catalog, writePatch(0, 1) { add(aptoide) }, keys.public)
+        CatalogPatcher.apply(context, catalog, writePatch(1, 2) { add(freedom) }, keys.public)
+
+        val (revision, apps) = readCatalog(catalog)
+        assertEquals(2, revision)
+        assertEquals(describe(listOf(luckyPatcher, aptoide, freedom)), describe(apps))
+    }
+
+    @Test
+    fun rejectsPatchSignedWithAnotherKey() {
+        val catalog = writeCatalog(listOf(luckyPatcher), 1)
+        val before = catalog.readBytes()
+        val patch = writePatch(1, 2, otherKeys.private) { add(aptoide) }
+
+        assertFails<SignatureException> {
+            CatalogPatcher.apply(context, catalog, patch, keys.public)
+        }
+        assertArrayEquals(before, catalog.readBytes())
+    }
+
+    @Test
+    fun rejectsModifiedPatch() {
+        val catalog = writeCatalog(listOf(luckyPatcher), 1)
+        val before = catalog.readBytes()
+        val patch = writePatch(1, 2) { add(aptoide) }
+        val bytes = patch.readBytes()
+        // The last byte of the to revision
+        bytes[CatalogFormat.PATCH_MAGIC.size + 2 + 7] = 3
+        patch.writeBytes(bytes)
+
+        assertFails<SignatureException> {
+            CatalogPatcher.apply(context, catalog, patch, keys.public)
+        }
+        assertArrayEquals(before, catalog.readBytes())
+    }
+
+    @Test
+    fun rejectsPatchForAnotherRevision() {
+        val catalog = writeCatalog(listOf(luckyPatcher), 3)
+        val before = catalog.readBytes()
+        val patch = writePatch(2, 3) { add(aptoide) }
+
+        assertFails<IOException> { CatalogPatcher.apply(context, catalog, patch, keys.public) }
+        assertArrayEquals(before, catalog.readBytes())
+        assertFalse(File(folder.root, "catalog.tmp").exists())
+    }
+
+    @Test
+    fun replacesCatalogThroughTemporaryFile() {
+        val catalog = writeCatalog(listOf(luckyPatcher), 0)
+        // Left by a patch interrupted before the rename
+        val temp = File(folder.root, "catalog.tmp")
+        temp.writeBytes(byteArrayOf(1, 2, 3))
+
+        CatalogPatcher.apply(context, catalog, writePatch(0, 1) { add(aptoide) }, keys.public)
+
+        assertFalse(temp.exists())
+        val (revision, apps) = readCatalog(catalog)
+        assertEquals(1, revision)
+        assertEquals(describe(listOf(luckyPatcher, aptoide)), describe(apps))
+    }
+
+    private companion object {
+        val keys: KeyPair by lazy { generateKeys() }
+        val otherKeys: KeyPair by lazy { generateKeys() }
+
+        fun generateKeys(): KeyPair =
+            KeyPairGenerator.getInstance("RSA").apply { initialize(2048) }.generateKeyPair()
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.javiersantos.piracychecker.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class BloomFilterTest {
+    private fun packageNames(count: Int, seed: Long): List<String> {
+        val random = Random(seed)
+        return List(count) { "com.${random.nextInt(1000)}.app${random.nextLong()}" }
+    }
+
+    private fun falsePositiveRate(expectedSize: Int, added: Int, rate: Double): Double {
+        val filter = BloomFilter(expectedSize, rate)
+        val names = packageNames(added, 1).toHashSet()
+        names.forEach { filter.add(it) }
+        val others = packageNames(100_000, 2).filter { it !in names }
+        return others.count { filter.mightContain(it) }.toDouble() / others.size
+    }
+
+    @Test
+    fun neverForgetsAddedValues() {
+        val filter = BloomFilter(10_000, 0.01)
+        val names = packageNames(10_000, 1)
+        names.forEach { filter.add(it) }
+        assertTrue(names.all { filter.mightContain(it) })
+    }
+
+    @Test
+    fun neverForgetsValuesAddedBeyondItsSize() {
+        val filter = BloomFilter(0, 0.01)
+        val names = packageNames(1_000, 1)
+        names.forEach { filter.add(it) }
+        assertTrue(names.all { filter.mightContain(it) })
+    }
+
+    @Test
+    fun keepsTheFalsePositiveRateItWasSizedFor() {
+        for (rate in listOf(0.1, 0.01, 0.001)) {
+            val measured = falsePositiveRate(10_000, 10_000, rate)
+            assertTrue("$measured for $rate", measured < rate * 2)
+        }
+    }
+
+    @Test
+    fun largerFiltersHaveFewerFalsePositives() {
+        val full = falsePositiveRate(10_000, 10_000, 0.05)
+        val halfFull = falsePositiveRate(20_000, 10_000, 0.05)
+        assertTrue("$halfFull >= $full", halfFull < full)
+    }
+
+    @Test
+    fun looksUpPrefixesWithoutCopying() {
+        val filter = BloomFilter(100, 0.01)
+        filter.add("com.foo")
+        assertTrue(filter.mightContain("com.foo.bar", "com.foo".length))
+        for (name in packageNames(1_000, 3)) {
+            for (length in 1..name.length) {
+                assertEquals(
+                    filter.mightContain(name.substring(0, length)),
+                    filter.mightContain(name, length)
+                )
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsRateOfZero() {
+        BloomFilter(100, 0.0)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsRateOfOne() {
+        BloomFilter(100, 1.0)
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.javiersantos.piracychecker.utils
+
+import com.github.javiersantos.piracychecker.enums.AppType
+import com.github.javiersantos.piracychecker.enums.MatchMode
+import com.github.javiersantos.piracychecker.enums.PirateApp
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PackageMatcherTest {
+    private fun app(packageName: String, matchMode: MatchMode) =
+        PirateApp(packageName, packageName, AppType.PIRATE, matchMode)
+
+    private fun PackageMatcher.indexesOf(vararg packageNames: String): List<Int> =
+        find(packageNames.asList()).stream().toArray().toList()
+
+    @Test
+    fun exactMatchesTheWholeName() {
+        val matcher = PackageMatcher.of(listOf(app("com.foo", MatchMode.EXACT)))
+        assertTrue(matcher.matches("com.foo"))
+        assertFalse(matcher.matches("com.foo.bar"))
+        assertFalse(matcher.matches("org.com.foo"))
+        assertFalse(matcher.matches("com.fo"))
+    }
+
+    @Test
+    fun prefixMatchesTheStart() {
+        val matcher = PackageMatcher.of(listOf(app("com.foo", MatchMode.PREFIX)))
+        assertTrue(matcher.matches("com.foo"))
+        assertTrue(matcher.matches("com.foo.bar"))
+        assertFalse(matcher.matches("org.com.foo"))
+    }
+
+    @Test
+    fun containsMatchesAnywhere() {
+        val matcher = PackageMatcher.of(listOf(app("foo", MatchMode.CONTAINS)))
+        assertTrue(matcher.matches("foo"))
+        assertTrue(matcher.matches("com.foo.bar"))
+        assertTrue(matcher.matches("com.bar.foo"))
+        assertFalse(matcher.matches("com.fo.o"))
+    }
+
+    @Test
+    fun emptyPackageNameNeverMatches() {
+        val matcher = PackageMatcher.of(listOf(app("", MatchMode.CONTAINS)))
+        assertFalse(matcher.matches("com.foo"))
+        assertFalse(PackageMatcher.matches(app("", MatchMode.CONTAINS), "com.foo"))
+    }
+
+    @Test
+    fun overlappingPatternsAreAllFound() {
+        val matcher = PackageMatcher.of(
+            listOf(
+                app("lucky", MatchMode.CONTAINS),
+                app("com.chelpus.lucky", MatchMode.PREFIX),
+                app("chelpus", MatchMode.CONTAINS),
+                app("com.chelpus", MatchMode.EXACT),
+                app("patcher", MatchMode.PREFIX)
+            )
+        )
+        assertEquals(listOf(0, 1, 2), matcher.indexesOf("com.chelpus.luckypatcher"))
+        assertEquals(listOf(2, 3), matcher.indexesOf("com.chelpus"))
+        assertEquals(listOf(0, 4), matcher.indexesOf("patcher.lucky"))
+    }
+
+    @Test
+    fun patternsFoundThroughFailureLinks() {
+        val matcher = PackageMatcher.of(
+            listOf(app("abcd", MatchMode.CONTAINS), app("bc", MatchMode.CONTAINS))
+        )
+        // "bc" is found while following the branch of "abcd"
+        assertEquals(listOf(1), matcher.indexesOf("abce"))
+        assertEquals(listOf(0, 1), matcher.indexesOf("xabcd"))
+        assertEquals(emptyList<Int>(), matcher.indexesOf("abdc"))
+    }
+
+    @Test
+    fun findCollectsTheMatchedNames() {
+        val matcher = PackageMatcher.of(listOf(app("foo", MatchMode.CONTAINS)))
+        val matched = ArrayList<String>()
+        matcher.find(listOf("com.foo", "com.bar", "foo.baz"), matched)
+        assertEquals(listOf("com.foo", "foo.baz"), matched)
+    }
+
+    @Test
+    fun agreesWithMatchingEachApp() {
+        val apps = listOf(
+            app("com.android.vending.billing.InAppBillingService", MatchMode.CONTAINS),
+            app("com.android.vending.billing", MatchMode.PREFIX),
+            app("billing", MatchMode.CONTAINS),
+            app("com.android.vending", MatchMode.EXACT),
+            app("uret.jasi2169", MatchMode.CONTAINS),
+            app("apps.zhushou", MatchMode.PREFIX)
+        )
+        val matcher = PackageMatcher.of(apps)
+        val packageNames = listOf(
+            "com.android.vending", "com.android.vending.billing.InAppBillingService.LOCK",
+            "com.android.vending.billingx", "org.billing", "uret.jasi2169.patcher",
+            "apps.zhushou", "com.apps.zhushou", "com.example", ""
+        )
+        for (packageName in packageNames) {
+            val expected = apps.indices.filter { PackageMatcher.matches(apps[it], packageName) }
+            assertEquals(packageName, expected, matcher.indexesOf(packageName))
+            assertEquals(packageName, expected.isNotEmpty(), matcher.matches(packageName))
+        }
+    }
+}